@@ -2,48 +2,329 @@ package cpen221.mp3.cache;
 
 import cpen221.mp3.wikimediator.NotInCacheException;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Represents a time-based-expiring collection of objects.
- * Upon initialization, a thread is started to continuously check
- * the amount of time every object has remained in the cache and remove
- * any objects that have remained longer than expected and become stale.
+ * Whenever a cache holds objects, it has a task pending on a maintenance thread
+ * shared by every cache, which runs when the next object is due to expire and removes
+ * any objects that have remained longer than expected and become stale. Stale objects
+ * are also never returned by a lookup that happens before the task gets to them.
+ * A cache that is no longer needed should be closed, which cancels its task and closes
+ * its second level.
+ *
+ * The capacity of a cache is either a number of objects or, when a Weigher is given,
+ * a budget on the total weight of its objects, such as their estimated size in bytes.
+ * When the cache is full, its EvictionPolicy decides which objects are removed.
+ * A cache may be given a DiskStore as a second level: objects removed to make room are
+ * written to it, and lookups that miss in memory check it before giving up or loading.
+ * Caches with these options are created with a Cache.Builder.
+ *
+ * A cache may also refresh objects once they are older than a refresh period: getOrLoad
+ * keeps returning the old object immediately while a background load replaces it, so only
+ * callers asking for an object that has timed out altogether wait for the loader.
+ *
+ * Every cache records hits, misses, loads and removals, which stats() reports.
+ *
+ * getOrLoad loads a missing object at most once at a time per identifier, handing the
+ * result of that one load to every caller that asked for it in the meantime. getOrLoadAsync
+ * does the same with a loader that returns a future, so that no thread waits for the load.
+ *
+ * Lookups with get and touch never block: touches are recorded in striped buffers
+ * and only applied to the eviction order when a writer next holds the eviction lock.
  *
  * @param <T> represents a Cacheable type
  */
 
-public class Cache<T extends Cacheable> {
+public class Cache<T extends Cacheable> implements Closeable {
 
     /* the default cache size is 32 objects */
     public static final int DSIZE = 32;
     /* the default timeout value is 3600s */
     public static final int DTIMEOUT = 3600;
 
+    /* the number of read buffers, a power of two so a thread can be mapped to one with a mask */
+    private static final int READ_BUFFERS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    /* the number of buffered touches after which a reader tries to drain the buffers itself */
+    private static final int DRAIN_THRESHOLD = 64;
+
     private final int timeout;
-    private final int capacity;
-    private final Map<String, T> cacheMap = new ConcurrentHashMap<>();
-    private final Map<T, Long> cache = new ConcurrentHashMap<>();
+    private final long refreshAfter;
+    private final Executor refreshExecutor;
+    private final long maxWeight;
+    private final long windowMaxWeight;
+    private final Weigher<? super T> weigher;
+    private final EvictionPolicy policy;
+    private final FrequencySketch sketch;
+    private final DiskStore<T> secondLevel;
+    private final StatsCounter statsCounter = new StatsCounter();
+    private final Map<String, Node<T>> cacheMap = new ConcurrentHashMap<>();
+    private final List<Queue<Node<T>>> readBuffers = new ArrayList<>();
+    private final AtomicInteger pendingReads = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Map<String, Node<T>> spilling = new ConcurrentHashMap<>();
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private final Map<String, CompletableFuture<T>> loading = new ConcurrentHashMap<>();
+    private final AccessQueue<T> window = new AccessQueue<>();
+    private final AccessQueue<T> main = new AccessQueue<>();
+    private Node<T> oldest;
+    private Node<T> newest;
+    private ScheduledFuture<?> maintenance;
+    private volatile boolean closed;
 
     //  Representation Invariant:
     //      - No entries in cacheMap may be null
-    //      - Every key and value in cacheMap must share the relationship: key = value.id()
-    //      - No entries in cache may be null
-    //      - No values in cache can exceed the value timeout
-    //      - Every key and value in cache must share the relationship: value = the time when key was added to cache
-    //      - cacheMap and cache size must be equal to each other and equal to or less than the capacity
+    //      - Every key and node in cacheMap must share the relationship: key = node.value.id()
+    //      - No node's timestamp can exceed the value timeout
+    //      - Every node in cacheMap is linked exactly once into the time ordered list running from oldest
+    //        to newest, and the list contains no other nodes
+    //      - Once the read buffers are drained, timestamps are non-decreasing from oldest to newest
+    //      - Every node in cacheMap is linked into exactly one of window and main, and node.queue is that queue
+    //      - The weight of window and main is the sum of the weights of their nodes
+    //      - window.weight <= windowMaxWeight and main.weight <= maxWeight - windowMaxWeight, except during put
+    //      - windowMaxWeight is 0 under LRU
+    //      - the weight of every node is weigher.weigh(node.value)
+    //      - oldest and newest are both null if and only if cacheMap is empty
+    //      - maintenance is not null whenever oldest is not null and the cache is not closed
+    //      - sketch is null if and only if policy is LRU
+    //      - refreshAfter is 0, meaning objects are never refreshed, or between 0 and timeout
+    //      - the writeTime of a node is never after its timestamp
+    //      - a node is persisted only if secondLevel holds a record of an object equal to its value
+    //      - every node in spilling was removed to make room, is not persisted, and maps from the id of its value
+    //      - spilling is empty once closed is true and close has returned
+    //      - every future in loading is incomplete, or is being removed by the thread that completed it
+    //      - readBuffers has READ_BUFFERS entries, and pendingReads approximates the number of nodes they hold
     //
     //  Abstraction Function:
-    //      Represents a data type to store capacity objects for a timeout period of time using a polling thread.
-    //      cacheMap relates each object with a unique identifier and cache associates every object with
-    //      the time at which it was placed into the cache.
+    //      Represents a data type to store objects of total weight up to maxWeight for a timeout period of time using
+    //      a task on the shared maintenance thread, maintenance, which is due no later than the oldest object expires. When the cache is bounded by a number of objects, every object weighs 1.
+    //      cacheMap relates each unique identifier with the node holding its object, and every node records
+    //      the time at which its object was placed into the cache or last touched, and the time at which the
+    //      object was written, after which it is refreshed once refreshAfter has passed. The list from oldest to
+    //      newest, after moving every node in readBuffers to the end in order, orders the objects from least
+    //      to most recently accessed, which is also the order they are due to expire in. window and main each
+    //      order their objects from least to most recently accessed; new objects enter window and the policy
+    //      decides which objects leaving window are admitted to main. sketch estimates how often each
+    //      identifier was recently accessed. secondLevel, if not null, holds objects that were removed to make
+    //      room, and persisted marks the nodes whose objects were read back from it. spilling holds the nodes
+    //      removed to make room that are still to be written to secondLevel, and still counts as part of it. loading relates each identifier whose object is being loaded by
+    //      getOrLoad with the eventual result of that load. statsCounter accumulates the statistics of the cache.
+    //      Once closed is true the cache no longer schedules maintenance or uses secondLevel.
     //
     // Thread safety argument:
     //      This class is Thread-safe because:
-    //      - cache, cacheMap, timeout and capacity are final
-    //      - cache and cacheMap are a thread safe type ConcurrentHashMap
-    //      - all public methods have been made synchronized
+    //      - cacheMap, loading, readBuffers, pendingReads, evictionLock, spilling, spillLock, window, main, sketch,
+    //        secondLevel, statsCounter, policy, timeout, refreshAfter, refreshExecutor, maxWeight, windowMaxWeight and weigher are final
+    //      - a refresh claims its identifier in loading like any other load, so at most one load or refresh of an
+    //        identifier runs at a time, and it replaces the node it refreshed while holding evictionLock
+    //      - secondLevel is a thread safe type DiskStore, and statsCounter is a thread safe type StatsCounter
+    //      - cacheMap and loading are a thread safe type ConcurrentHashMap, only one thread can claim
+    //        an identifier in loading with putIfAbsent, and readBuffers only holds thread safe
+    //        ConcurrentLinkedQueues and pendingReads is a thread safe AtomicInteger
+    //      - oldest, newest, maintenance, window, main, sketch and the links between nodes are only read or written
+    //        while holding evictionLock, and closed is volatile
+    //      - the maintenance task only holds a weak reference to the cache and takes evictionLock like any writer
+    //      - the timestamp of a node is volatile, so get and touch can read and write it without the lock
+    //      - every method that changes the contents of cacheMap holds evictionLock
+    //      - spilling is a thread safe type ConcurrentHashMap, and secondLevel is only written while holding
+    //        spillLock and never while holding evictionLock, so a slow disk write does not stall other writers
+
+    /**
+     * An entry of the cache. Each node is linked into two doubly linked lists, both in order of
+     * last access: the queue of the eviction policy it currently belongs to, and the time ordered
+     * list used for expiration. The least recently accessed object of either can be found, moved
+     * and removed in constant time.
+     */
+    private static final class Node<T> {
+        private final T value;
+        private final long weight;
+        private final boolean persisted;
+        private final long writeTime;
+        private volatile long timestamp;
+        private AccessQueue<T> queue;
+        private Node<T> prev;
+        private Node<T> next;
+        private Node<T> prevInTime;
+        private Node<T> nextInTime;
+
+        Node(T value, long weight, boolean persisted, long writeTime, long timestamp) {
+            this.value = value;
+            this.weight = weight;
+            this.persisted = persisted;
+            this.writeTime = writeTime;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * A queue of nodes, from least to most recently accessed, linked through their prev and next
+     * fields, which keeps track of the total weight of its nodes.
+     */
+    private static final class AccessQueue<T> {
+        private Node<T> head;
+        private Node<T> tail;
+        private long weight;
+
+        /**
+         * Append node to the most recently accessed end of this queue.
+         *
+         * @param node a node that is not currently in any queue
+         */
+        void linkLast(Node<T> node) {
+            node.queue = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        /**
+         * Detach node from this queue, joining its neighbours together.
+         *
+         * @param node a node that is currently in this queue
+         */
+        void unlink(Node<T> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.queue = null;
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        /**
+         * Move node to the most recently accessed end of this queue.
+         *
+         * @param node a node that is currently in this queue
+         */
+        void moveToTail(Node<T> node) {
+            if (node != tail) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+    }
+
+    /**
+     * Collects the options of a Cache. Every option starts at the value used by the
+     * default constructor of Cache: DSIZE objects, DTIMEOUT seconds, LRU and no second level.
+     *
+     * @param <T> represents a Cacheable type
+     */
+    public static class Builder<T extends Cacheable> {
+        private long maxWeight = DSIZE;
+        private Weigher<? super T> weigher = t -> 1;
+        private int timeout = DTIMEOUT;
+        private EvictionPolicy policy = EvictionPolicy.LRU;
+        private DiskStore<T> secondLevel;
+        private int refreshAfter;
+        private Executor refreshExecutor = ForkJoinPool.commonPool();
+
+        /**
+         * @param capacity the number of objects the cache can hold
+         * @return this builder
+         */
+        public Builder<T> withCapacity(int capacity) {
+            this.maxWeight = capacity;
+            this.weigher = t -> 1;
+            return this;
+        }
+
+        /**
+         * @param maxWeight the total weight of the objects the cache can hold, such as a number of bytes
+         * @param weigher estimates the weight of each object put in the cache
+         * @return this builder
+         */
+        public Builder<T> withMaxWeight(long maxWeight, Weigher<? super T> weigher) {
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * @param timeout the duration in seconds an object should be in the cache before it times out
+         * @return this builder
+         */
+        public Builder<T> withTimeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * @param policy decides which objects to remove when the cache is full
+         * @return this builder
+         */
+        public Builder<T> withPolicy(EvictionPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * @param secondLevel receives the objects removed to make room, and is checked on every miss.
+         *                    It must not be shared with another cache
+         * @return this builder
+         */
+        public Builder<T> withSecondLevel(DiskStore<T> secondLevel) {
+            this.secondLevel = secondLevel;
+            return this;
+        }
+
+        /**
+         * @param refreshAfter the duration in seconds after an object is written at which getOrLoad
+         *                     starts reloading it in the background, while still returning it.
+         *                     Must be less than the timeout; 0 turns refreshing off
+         * @return this builder
+         */
+        public Builder<T> withRefreshAfter(int refreshAfter) {
+            this.refreshAfter = refreshAfter;
+            return this;
+        }
+
+        /**
+         * @param refreshExecutor runs the background loads that refresh objects,
+         *                        by default the common ForkJoinPool
+         * @return this builder
+         */
+        public Builder<T> withRefreshExecutor(Executor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        /**
+         * @return a new cache with the options of this builder
+         */
+        public Cache<T> build() {
+            return new Cache<>(this);
+        }
+    }
 
     /**
      * Create a cache with a fixed capacity and a timeout value.
@@ -54,9 +335,74 @@ public class Cache<T extends Cacheable> {
      * @param timeout  the duration an object should be in the cache before it times out
      */
     public Cache(int capacity, int timeout) {
-        this.timeout = timeout*1000;
-        this.capacity = capacity;
-        pruneThread();
+        this(capacity, timeout, EvictionPolicy.LRU);
+    }
+
+    /**
+     * Create a cache with a fixed capacity, a timeout value and an eviction policy.
+     * Objects in the cache that have not been refreshed within the timeout period
+     * are removed from the cache.
+     *
+     * @param capacity the number of objects the cache can hold
+     * @param timeout  the duration an object should be in the cache before it times out
+     * @param policy   decides which objects to remove when the cache is full
+     */
+    public Cache(int capacity, int timeout, EvictionPolicy policy) {
+        this(capacity, timeout, t -> 1, policy);
+    }
+
+    /**
+     * Create a cache bounded by the total weight of its objects and a timeout value.
+     * Objects in the cache that have not been refreshed within the timeout period
+     * are removed from the cache, and the least recently accessed objects are removed
+     * whenever adding an object would take the total weight over maxWeight.
+     *
+     * @param maxWeight the total weight of the objects the cache can hold, such as a number of bytes
+     * @param timeout   the duration an object should be in the cache before it times out
+     * @param weigher   estimates the weight of each object put in the cache
+     */
+    public Cache(long maxWeight, int timeout, Weigher<? super T> weigher) {
+        this(maxWeight, timeout, weigher, EvictionPolicy.LRU);
+    }
+
+    /**
+     * Create a cache bounded by the total weight of its objects, with a timeout value and an eviction policy.
+     * Objects in the cache that have not been refreshed within the timeout period
+     * are removed from the cache, and policy chooses objects to remove whenever adding an
+     * object would take the total weight over maxWeight.
+     *
+     * @param maxWeight the total weight of the objects the cache can hold, such as a number of bytes
+     * @param timeout   the duration an object should be in the cache before it times out
+     * @param weigher   estimates the weight of each object put in the cache
+     * @param policy    decides which objects to remove when the cache is full
+     */
+    public Cache(long maxWeight, int timeout, Weigher<? super T> weigher, EvictionPolicy policy) {
+        this(new Builder<T>().withMaxWeight(maxWeight, weigher).withTimeout(timeout).withPolicy(policy));
+    }
+
+    /**
+     * Create a cache with the options collected by builder.
+     *
+     * @param builder the options of the cache
+     */
+    private Cache(Builder<T> builder) {
+        this.timeout = builder.timeout*1000;
+        this.refreshAfter = builder.refreshAfter*1000L;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.maxWeight = builder.maxWeight;
+        this.weigher = builder.weigher;
+        this.policy = builder.policy;
+        this.secondLevel = builder.secondLevel;
+        if (policy == EvictionPolicy.TINY_LFU) {
+            windowMaxWeight = Math.max(1, maxWeight / 100);
+            sketch = new FrequencySketch(maxWeight);
+        } else {
+            windowMaxWeight = 0;
+            sketch = null;
+        }
+        for (int i = 0; i < READ_BUFFERS; i++) {
+            readBuffers.add(new ConcurrentLinkedQueue<>());
+        }
     }
 
     /**
@@ -67,53 +413,141 @@ public class Cache<T extends Cacheable> {
     }
 
     /**
-     * Thread which continuously compares the amount of time the object has remained in the cache
-     * by checking the value associated with each object key in cache. Thread removes any objects from
-     * cache and cacheMap if the value exceeds timeout.
-     */
-    void pruneThread() {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (true) {
-                    synchronized (this) {
-                        long currentTime = System.currentTimeMillis();
-                        for (T val : cache.keySet()) {
-                            if (currentTime > cache.get(val) + timeout) {
-                                cache.remove(val);
-                                cacheMap.remove(val.id());
-                            }
-                        }
-                    }
-                }
+     * Remove the objects whose timestamp exceeds timeout, and schedule the next run for when
+     * the new oldest object is due to expire. Every object shares the same timeout, so the least
+     * recently accessed object at the start of the time ordered list is always the next one due.
+     * Runs on the shared maintenance thread.
+     */
+    private void maintain() {
+        evictionLock.lock();
+        try {
+            maintenance = null;
+            drainReadBuffers();
+            long currentTime = System.currentTimeMillis();
+            while (oldest != null && isExpired(oldest, currentTime)) {
+                remove(oldest, RemovalCause.EXPIRED);
+            }
+
+            if (oldest != null) {
+                scheduleMaintenance(oldest.timestamp + timeout - currentTime + 1);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Replace the pending maintenance task, if any, with one that runs after delay.
+     * Must be called while holding evictionLock.
+     *
+     * @param delay the delay in milliseconds before the next run of maintain
+     */
+    private void scheduleMaintenance(long delay) {
+        if (closed) {
+            return;
+        }
+        if (maintenance != null) {
+            maintenance.cancel(false);
+        }
+        maintenance = CacheScheduler.schedule(new MaintenanceTask(this), delay);
+    }
+
+    /**
+     * Runs maintain on a cache that is still in use. The task only weakly refers to its cache,
+     * so a cache that was dropped without being closed can still be garbage collected.
+     */
+    private static final class MaintenanceTask implements Runnable {
+        private final WeakReference<Cache<?>> cache;
+
+        MaintenanceTask(Cache<?> cache) {
+            this.cache = new WeakReference<>(cache);
+        }
+
+        @Override
+        public void run() {
+            Cache<?> target = cache.get();
+            if (target != null) {
+                target.maintain();
+            }
+        }
+    }
+
+    /**
+     * Stop maintaining this cache and close its second level. The objects already in memory
+     * stay until they are evicted, but no longer expire in the background or spill to disk.
+     *
+     * @throws IOException if the second level could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        evictionLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (maintenance != null) {
+                maintenance.cancel(false);
+                maintenance = null;
             }
-        }).start();
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (secondLevel != null) {
+            // no node is spilled once closed is set, so writing out the ones already removed empties spilling for good
+            spillLock.lock();
+            try {
+                writeSpilled();
+                secondLevel.close();
+            } finally {
+                spillLock.unlock();
+            }
+        }
     }
 
     /**
      * Add an object t to the cache.
-     * If the cache is full then remove the least recently accessed object to
-     * make room for the new object.
+     * If the cache is full then remove objects chosen by the eviction policy, the least
+     * recently accessed ones under LRU, to make room for the new object.
      *
      * @param t the object to put in cache
      * @returns true if t was successfully added to cache
-     * @returns false if t is already in cache
+     * @returns false if t is already in cache, t alone weighs more than the cache can hold,
+     *          or the eviction policy declined to admit t
      */
-    public synchronized boolean put(T t) {
-        if(cache.containsKey(t)) {
-            return false;
-        }
+    public boolean put(T t) {
+        return insert(t, false, System.currentTimeMillis());
+    }
 
-        if (cache.keySet().size() == capacity) {
-            List<T> list = new ArrayList<T>(cache.keySet());
-            Collections.sort(list, (t1, t2) -> {return Long.compare(cache.get(t1),cache.get(t2));});
-            cache.remove(list.get(0));
-            cacheMap.remove(list.get(0).id());
-        }
+    /**
+     * Add an object t to the cache, as put does.
+     *
+     * @param t the object to put in cache
+     * @param persisted true if t was just read from secondLevel, so that it need not be written there again
+     * @param writeTime the time in milliseconds at which t was first written, no later than now
+     * @return true if t was successfully added to cache
+     */
+    private boolean insert(T t, boolean persisted, long writeTime) {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            long weight = weigher.weigh(t);
+            if (lookup(t.id()) != null || weight > maxWeight) {
+                return false;
+            }
 
-        cacheMap.putIfAbsent(t.id(), t);
-        cache.putIfAbsent(t, System.currentTimeMillis());
-        return true;
+            recordAccess(t.id());
+            Node<T> node = new Node<>(t, weight, persisted, writeTime, System.currentTimeMillis());
+            cacheMap.put(t.id(), node);
+            window.linkLast(node);
+            linkLastInTime(node);
+            evict();
+            return cacheMap.get(t.id()) == node;
+        } finally {
+            evictionLock.unlock();
+            flushSpilled();
+        }
     }
 
     /**
@@ -121,16 +555,344 @@ public class Cache<T extends Cacheable> {
      *
      * @param id the identifier of the object to be retrieved
      * @return the object that matches the identifier from the cache
-     * @throws NotInCacheException if id is not in cacheMap
+     * @throws NotInCacheException if id is not in cacheMap or the second level
      */
-    public synchronized T get(String id) throws NotInCacheException {
-        T ret = cacheMap.get(id);
-
-        if (ret == null) {
+    public T get(String id) throws NotInCacheException {
+        T value = getIfPresent(id);
+        if (value == null) {
             throw new NotInCacheException();
         }
+        return value;
+    }
+
+    /**
+     * Retrieve the object with the identifier id as get does, for callers to whom a miss is not an error.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier, or null if id is not in cacheMap or the second level
+     */
+    public T getIfPresent(String id) {
+        Node<T> ret = cacheMap.get(id);
+
+        if (ret == null || isExpired(ret, System.currentTimeMillis())) {
+            statsCounter.recordMiss();
+            return loadFromSecondLevel(id);
+        }
+
+        statsCounter.recordHit();
+        return ret.value;
+    }
+
+    /**
+     * Read the object with the identifier id from secondLevel, putting it back in memory if found.
+     * It keeps the time it was first written, so a refresh is still due once refreshAfter has passed since then.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object with the identifier id, or null if there is no second level or it does not hold id
+     */
+    private T loadFromSecondLevel(String id) {
+        if (secondLevel == null || closed) {
+            return null;
+        }
 
-        return ret;
+        Node<T> spilled = spilling.get(id);
+        if (spilled != null) {
+            statsCounter.recordSecondLevelHit();
+            insert(spilled.value, false, spilled.writeTime);
+            return spilled.value;
+        }
+
+        DiskStore.Entry<T> entry = secondLevel.getEntry(id);
+        if (entry == null) {
+            return null;
+        }
+        statsCounter.recordSecondLevelHit();
+        insert(entry.value(), true, entry.writeTime());
+        return entry.value();
+    }
+
+    /**
+     * Retrieve the object with the associated identifier id from the cache, touching it, or
+     * if it is not in the cache or its second level, load it with loader and put it in the cache.
+     * If the object was written longer ago than the refresh period, it is still returned at once,
+     * and loader is run in the background to replace it.
+     * If another thread is already loading id, wait for that load instead of starting another,
+     * so that concurrent misses for the same identifier call loader only once.
+     * loader is called without holding any lock of the cache.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @param loader computes the object for id when it is not in the cache. The object it
+     *        returns must have the identifier id. If it returns null nothing is cached
+     * @return the object that matches the identifier, or null if it was not in the cache
+     *         and loader returned null
+     * @throws RuntimeException any exception thrown by loader, in every thread waiting on that load.
+     *         Nothing is cached when loader throws
+     */
+    public T getOrLoad(String id, Function<String, ? extends T> loader) {
+        Node<T> ret = cacheMap.get(id);
+        long currentTime = System.currentTimeMillis();
+
+        if (ret != null && !isExpired(ret, currentTime)) {
+            statsCounter.recordHit();
+            ret.timestamp = currentTime;
+            recordRead(ret);
+            if (refreshAfter > 0 && currentTime > ret.writeTime + refreshAfter) {
+                refresh(id, ret, loader);
+            }
+            return ret.value;
+        }
+
+        statsCounter.recordMiss();
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> inFlight = loading.putIfAbsent(id, load);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+
+        T value;
+        try {
+            // another thread may have finished loading id between the lookup above and claiming it
+            ret = cacheMap.get(id);
+            if (ret != null && !isExpired(ret, System.currentTimeMillis())) {
+                value = ret.value;
+            } else {
+                value = loadFromSecondLevel(id);
+                if (value == null) {
+                    value = timedLoad(id, loader);
+                    if (value != null) {
+                        put(value);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // release id before completing, since whatever waits on load may look id up again at once
+            loading.remove(id, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+
+        loading.remove(id, load);
+        load.complete(value);
+        return value;
+    }
+
+    /**
+     * Retrieve the object with identifier id as getOrLoad does, without waiting for it to be loaded.
+     * On a miss, loader starts the load and the result is cached once its future completes; a miss
+     * for an identifier that is already being loaded, by either method, shares that load. Only the
+     * second level, if there is one, is read by the calling thread.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @param loader starts computing the object for id when it is not in the cache, returning its future.
+     *        The object must have the identifier id. If it is null nothing is cached
+     * @return the future object that matches the identifier, which completes with null if it was not in the
+     *         cache and loader produced null, or fails with whatever loader failed with. Nothing is cached
+     *         when loader fails
+     */
+    public CompletableFuture<T> getOrLoadAsync(String id,
+                                               Function<String, ? extends CompletableFuture<? extends T>> loader) {
+        return getOrLoadAsync(id, loader, (key, old) -> loader.apply(key));
+    }
+
+    /**
+     * Retrieve the object with identifier id as getOrLoadAsync(id, loader) does, refreshing an object
+     * older than the refresh period with reloader instead of loader, so that the new object can be
+     * computed from the one it replaces.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @param loader starts computing the object for id when it is not in the cache, returning its future.
+     *        The object must have the identifier id. If it is null nothing is cached
+     * @param reloader starts computing the object for id in place of the cached object it is given,
+     *        returning its future. The object must have the identifier id. If it is null nothing is replaced
+     * @return the future object that matches the identifier, as getOrLoadAsync(id, loader) returns
+     */
+    public CompletableFuture<T> getOrLoadAsync(String id,
+                                               Function<String, ? extends CompletableFuture<? extends T>> loader,
+                                               BiFunction<String, ? super T, ? extends CompletableFuture<? extends T>>
+                                                       reloader) {
+        Node<T> ret = cacheMap.get(id);
+        long currentTime = System.currentTimeMillis();
+
+        if (ret != null && !isExpired(ret, currentTime)) {
+            statsCounter.recordHit();
+            ret.timestamp = currentTime;
+            recordRead(ret);
+            if (refreshAfter > 0 && currentTime > ret.writeTime + refreshAfter) {
+                refreshAsync(id, ret, reloader);
+            }
+            return CompletableFuture.completedFuture(ret.value);
+        }
+
+        statsCounter.recordMiss();
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> inFlight = loading.putIfAbsent(id, load);
+        if (inFlight != null) {
+            return inFlight.thenApply(Function.identity());
+        }
+
+        // another thread may have finished loading id between the lookup above and claiming it
+        ret = cacheMap.get(id);
+        T stored = ret != null && !isExpired(ret, System.currentTimeMillis()) ? ret.value : null;
+        CompletableFuture<? extends T> fetch;
+        long start = System.nanoTime();
+        try {
+            if (stored == null) {
+                stored = loadFromSecondLevel(id);
+            }
+            fetch = stored != null ? CompletableFuture.completedFuture(stored) : loader.apply(id);
+        } catch (RuntimeException | Error e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - start);
+            loading.remove(id, load);
+            load.completeExceptionally(e);
+            return load.thenApply(Function.identity());
+        }
+
+        boolean loaded = stored == null;
+        fetch.whenComplete((value, e) -> {
+            // release id before completing, since whatever waits on load may look id up again at once
+            if (e == null) {
+                if (loaded) {
+                    statsCounter.recordLoadSuccess(System.nanoTime() - start);
+                    if (value != null) {
+                        put(value);
+                    }
+                }
+                loading.remove(id, load);
+                load.complete(value);
+            } else {
+                statsCounter.recordLoadFailure(System.nanoTime() - start);
+                loading.remove(id, load);
+                load.completeExceptionally(unwrap(e));
+            }
+        });
+        return load.thenApply(Function.identity());
+    }
+
+    /**
+     * Reload the object of node in the background with loader, unless id is already being loaded,
+     * and replace node with the result. If the load fails, node is left as it is.
+     *
+     * @param id the identifier of the object to refresh
+     * @param node the node holding the object to refresh
+     * @param loader computes the new object for id
+     */
+    private void refresh(String id, Node<T> node, Function<String, ? extends T> loader) {
+        refreshAsync(id, node,
+                (key, old) -> CompletableFuture.supplyAsync(() -> loader.apply(key), refreshExecutor));
+    }
+
+    /**
+     * Reload the object of node with reloader, unless id is already being loaded, and replace node
+     * with the result once it arrives. If the load fails, node is left as it is.
+     *
+     * @param id the identifier of the object to refresh
+     * @param node the node holding the object to refresh
+     * @param reloader starts computing the new object for id from the object of node
+     */
+    private void refreshAsync(String id, Node<T> node,
+                              BiFunction<String, ? super T, ? extends CompletableFuture<? extends T>> reloader) {
+        CompletableFuture<T> reload = new CompletableFuture<>();
+        if (loading.putIfAbsent(id, reload) != null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<? extends T> load;
+        try {
+            load = reloader.apply(id, node.value);
+        } catch (RejectedExecutionException e) {
+            loading.remove(id, reload);
+            reload.complete(node.value);
+            return;
+        } catch (RuntimeException | Error e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - start);
+            loading.remove(id, reload);
+            reload.completeExceptionally(e);
+            return;
+        }
+
+        load.whenComplete((value, e) -> {
+            // release id before completing, as getOrLoadAsync does
+            if (e == null) {
+                statsCounter.recordLoadSuccess(System.nanoTime() - start);
+                if (value != null) {
+                    replace(node, value);
+                }
+                loading.remove(id, reload);
+                reload.complete(value);
+            } else {
+                statsCounter.recordLoadFailure(System.nanoTime() - start);
+                loading.remove(id, reload);
+                reload.completeExceptionally(unwrap(e));
+            }
+        });
+    }
+
+    /**
+     * Put value in the cache in place of node, unless node has since been replaced by another object.
+     *
+     * @param node the node that was refreshed
+     * @param value the new object for the identifier of node
+     */
+    private void replace(Node<T> node, T value) {
+        evictionLock.lock();
+        try {
+            Node<T> current = cacheMap.get(node.value.id());
+            if (current == node) {
+                remove(node, RemovalCause.REPLACED);
+            }
+            if (current == node || current == null) {
+                insert(value, false, System.currentTimeMillis());
+            }
+        } finally {
+            evictionLock.unlock();
+            flushSpilled();
+        }
+    }
+
+    /**
+     * Call loader for id, recording how long it took and whether it succeeded.
+     *
+     * @return the object returned by loader
+     */
+    private T timedLoad(String id, Function<String, ? extends T> loader) {
+        long start = System.nanoTime();
+        try {
+            T value = loader.apply(id);
+            statsCounter.recordLoadSuccess(System.nanoTime() - start);
+            return value;
+        } catch (RuntimeException | Error e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * @param e the exception a future failed with
+     * @return the exception of the load itself, if e only wraps it
+     */
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Wait for a load started by another thread in getOrLoad.
+     *
+     * @param load the result of the load
+     * @return the object that was loaded
+     * @throws RuntimeException the exception the loader threw, if it failed
+     */
+    private T await(CompletableFuture<T> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
     }
 
     /**
@@ -142,14 +904,16 @@ public class Cache<T extends Cacheable> {
      * @return true if successful
      * @return false if object with id is not within cache
      */
-    public synchronized boolean touch(String id) {
-        T ret = cacheMap.get(id);
+    public boolean touch(String id) {
+        Node<T> ret = cacheMap.get(id);
+        long currentTime = System.currentTimeMillis();
 
-        if (ret == null) {
+        if (ret == null || isExpired(ret, currentTime)) {
             return false;
         }
 
-        cache.replace(ret, System.currentTimeMillis());
+        ret.timestamp = currentTime;
+        recordRead(ret);
         return true;
     }
 
@@ -159,20 +923,250 @@ public class Cache<T extends Cacheable> {
      *
      * @param t the object to update
      * @return true if successful
-     * @return false if object is not within cache
+     * @return false if object is not within cache, or the updated object alone weighs more
+     *         than the cache can hold, in which case the old object is still removed
      */
-    public synchronized boolean update(T t) {
-        T ret = cacheMap.get(t.id());
+    public boolean update(T t) {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node<T> ret = lookup(t.id());
 
-        if (ret == null) {
-            return false;
+            if (ret == null) {
+                return false;
+            }
+
+            remove(ret, RemovalCause.REPLACED);
+
+            return put(t);
+        } finally {
+            evictionLock.unlock();
+            flushSpilled();
         }
+    }
 
-        cache.remove(t);
-        cacheMap.remove(t.id());
+    /**
+     * Buffer a touch of node so that it can be moved to the tail of the list later.
+     * If enough touches are waiting and no other thread holds evictionLock, apply them now.
+     *
+     * @param node the node that was touched
+     */
+    private void recordRead(Node<T> node) {
+        int stripe = (int) Thread.currentThread().getId() & (READ_BUFFERS - 1);
+        readBuffers.get(stripe).offer(node);
 
-        put(t);
-        return true;
+        if (pendingReads.incrementAndGet() >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Move every buffered touched node that is still in the cache to the most recently
+     * accessed end of its queue and of the time ordered list, recording the access.
+     * Must be called while holding evictionLock.
+     */
+    private void drainReadBuffers() {
+        for (Queue<Node<T>> buffer : readBuffers) {
+            for (Node<T> node = buffer.poll(); node != null; node = buffer.poll()) {
+                pendingReads.decrementAndGet();
+                if (cacheMap.get(node.value.id()) == node) {
+                    recordAccess(node.value.id());
+                    node.queue.moveToTail(node);
+                    if (node != newest) {
+                        unlinkInTime(node);
+                        linkLastInTime(node);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record an access of id in the frequency sketch, if the policy uses one.
+     * Must be called while holding evictionLock.
+     */
+    private void recordAccess(String id) {
+        if (sketch != null) {
+            sketch.increment(id);
+        }
+    }
+
+    /**
+     * Move objects out of the window until it is within its budget, admitting each to main
+     * if the policy allows, and otherwise removing it from the cache.
+     * Must be called while holding evictionLock.
+     */
+    private void evict() {
+        while (window.weight > windowMaxWeight) {
+            Node<T> candidate = window.head;
+            window.unlink(candidate);
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Add candidate to main, removing the least recently accessed objects of main to make room
+     * as long as candidate wins against each of them under the policy. Under LRU candidate
+     * always wins; under TinyLFU it must have been accessed more often recently than the object
+     * it displaces. If candidate loses it is removed from the cache instead. Every object
+     * removed is written to the second level.
+     * Must be called while holding evictionLock.
+     *
+     * @param candidate a node in the cache that is not in any queue
+     */
+    private void admit(Node<T> candidate) {
+        long mainMaxWeight = maxWeight - windowMaxWeight;
+
+        while (main.weight + candidate.weight > mainMaxWeight) {
+            Node<T> victim = main.head;
+            if (victim == null || (policy == EvictionPolicy.TINY_LFU
+                    && sketch.frequency(candidate.value.id()) <= sketch.frequency(victim.value.id()))) {
+                remove(candidate, RemovalCause.SIZE);
+                spill(candidate);
+                return;
+            }
+            remove(victim, RemovalCause.SIZE);
+            spill(victim);
+        }
+
+        main.linkLast(candidate);
+    }
+
+    /**
+     * Queue the object of a node removed to make room to be written to secondLevel, unless it is
+     * already there. It is written by flushSpilled once evictionLock is released.
+     * Must be called while holding evictionLock.
+     *
+     * @param node a node that was removed from the cache
+     */
+    private void spill(Node<T> node) {
+        if (secondLevel != null && !closed && !node.persisted) {
+            spilling.put(node.value.id(), node);
+        }
+    }
+
+    /**
+     * Write the queued spilled objects to secondLevel, unless this thread still holds evictionLock,
+     * in which case the outermost caller writes them once it releases the lock. If another thread is
+     * already writing, it is left to write these too.
+     */
+    private void flushSpilled() {
+        while (!spilling.isEmpty() && !evictionLock.isHeldByCurrentThread() && spillLock.tryLock()) {
+            try {
+                writeSpilled();
+            } finally {
+                spillLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write every queued spilled object to secondLevel, keeping the time it was first written.
+     * Must be called while holding spillLock.
+     */
+    private void writeSpilled() {
+        for (Node<T> node : spilling.values()) {
+            secondLevel.put(node.value, node.writeTime);
+            spilling.remove(node.value.id(), node);
+        }
+    }
+
+    /**
+     * Find the node for id, removing it instead if it has already expired so that
+     * stale objects are never handed out between runs of the maintenance task.
+     * Must be called while holding evictionLock.
+     *
+     * @param id the identifier of the object to find
+     * @return the node holding the object with the identifier id, or null if
+     *         there is no such object or it has expired
+     */
+    private Node<T> lookup(String id) {
+        Node<T> node = cacheMap.get(id);
+
+        if (node != null && isExpired(node, System.currentTimeMillis())) {
+            remove(node, RemovalCause.EXPIRED);
+            return null;
+        }
+
+        return node;
+    }
+
+    /**
+     * @param node a node in the cache
+     * @param currentTime the current time in milliseconds
+     * @return true if node has not been touched within the timeout period
+     */
+    private boolean isExpired(Node<T> node, long currentTime) {
+        return currentTime > node.timestamp + timeout;
+    }
+
+    /**
+     * Remove node from cacheMap, its queue and the time ordered list.
+     * Must be called while holding evictionLock.
+     *
+     * @param node the node to remove, must be in the cache
+     * @param cause the reason node is removed
+     */
+    private void remove(Node<T> node, RemovalCause cause) {
+        statsCounter.recordRemoval(cause);
+        cacheMap.remove(node.value.id());
+        if (node.queue != null) {
+            node.queue.unlink(node);
+        }
+        unlinkInTime(node);
+    }
+
+    /**
+     * Append node to the newest end of the time ordered list.
+     * Must be called while holding evictionLock.
+     *
+     * @param node a node that is not currently linked into the time ordered list
+     */
+    private void linkLastInTime(Node<T> node) {
+        node.prevInTime = newest;
+        node.nextInTime = null;
+        if (newest == null) {
+            oldest = node;
+            // an empty cache has nothing to expire, so it may have no maintenance pending
+            if (maintenance == null) {
+                scheduleMaintenance(timeout + 1);
+            }
+        } else {
+            newest.nextInTime = node;
+        }
+        newest = node;
+    }
+
+    /**
+     * Detach node from the time ordered list, joining its neighbours together.
+     * Must be called while holding evictionLock.
+     *
+     * @param node a node that is currently linked into the time ordered list
+     */
+    private void unlinkInTime(Node<T> node) {
+        if (node.prevInTime == null) {
+            oldest = node.nextInTime;
+        } else {
+            node.prevInTime.nextInTime = node.nextInTime;
+        }
+        if (node.nextInTime == null) {
+            newest = node.prevInTime;
+        } else {
+            node.nextInTime.prevInTime = node.prevInTime;
+        }
+        node.prevInTime = null;
+        node.nextInTime = null;
+    }
+
+    /**
+     * @return a snapshot of the statistics recorded since the cache was created
+     */
+    public CacheStats stats() {
+        return statsCounter.snapshot();
     }
 
     /**
@@ -181,7 +1175,20 @@ public class Cache<T extends Cacheable> {
      * @return the set of CacheItem keys in the cache ConcurrentHashMap
      */
     public Set<T> keySet() {
-        // defensive copying
-        return new HashSet<>(cache.keySet());
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            // defensive copying
+            Set<T> keys = new HashSet<>();
+            long currentTime = System.currentTimeMillis();
+            for (Node<T> node = oldest; node != null; node = node.nextInTime) {
+                if (!isExpired(node, currentTime)) {
+                    keys.add(node.value);
+                }
+            }
+            return keys;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 }
@@ -0,0 +1,45 @@
+package cpen221.mp3.cache;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single daemon thread on which every Cache expires its objects and does its other
+ * housekeeping, so that the number of threads stays the same however many caches exist.
+ */
+final class CacheScheduler {
+
+    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "cache-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // a closed cache cancels its pending task, which should not linger in the queue until its deadline
+        EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    //  Abstraction Function:
+    //      EXECUTOR runs the pending maintenance task of every cache, one at a time, once its delay has passed.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - EXECUTOR is final and a thread safe type ScheduledThreadPoolExecutor
+
+    private CacheScheduler() {
+    }
+
+    /**
+     * Run task on the maintenance thread once delay has passed.
+     * Tasks must be short and must not throw, since they share the one thread.
+     *
+     * @param task the housekeeping to do
+     * @param delay the delay in milliseconds before running task
+     * @return the pending task, which can be cancelled
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return EXECUTOR.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,140 @@
+package cpen221.mp3.cache;
+
+import com.google.gson.JsonObject;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the statistics of a Cache.
+ */
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long secondLevelHitCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final Map<RemovalCause, Long> removalCounts;
+
+    //  Representation Invariants:
+    //      - every count and totalLoadTime is greater than or equal to 0
+    //      - removalCounts has an entry for every RemovalCause
+    //
+    //  Abstraction Function:
+    //      Represents the number of lookups of a cache that found their object in memory (hitCount) or not
+    //      (missCount), the misses answered by its second level (secondLevelHitCount), the loads that returned
+    //      a value or failed, the total nanoseconds spent loading, and the number of objects removed for each cause.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because it is immutable: every field is final, and removalCounts
+    //      is an unmodifiable copy.
+
+    CacheStats(long hitCount, long missCount, long secondLevelHitCount, long loadSuccessCount,
+               long loadFailureCount, long totalLoadTime, Map<RemovalCause, Long> removalCounts) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.secondLevelHitCount = secondLevelHitCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.removalCounts = Collections.unmodifiableMap(new EnumMap<>(removalCounts));
+    }
+
+    /**
+     * @return the number of lookups that found their object in memory
+     */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups that did not find their object in memory
+     */
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the fraction of lookups that found their object in memory, or 1 if there were none
+     */
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * @return the number of misses that were answered by the second level
+     */
+    public long secondLevelHitCount() {
+        return secondLevelHitCount;
+    }
+
+    /**
+     * @return the number of loads that completed without throwing
+     */
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * @return the number of loads that threw an exception
+     */
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @return the total time spent loading, in nanoseconds
+     */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * @return the average time spent on each load in nanoseconds, or 0 if there were no loads
+     */
+    public double averageLoadPenalty() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    /**
+     * @param cause the reason objects were removed
+     * @return the number of objects removed from the cache for cause
+     */
+    public long removalCount(RemovalCause cause) {
+        return removalCounts.get(cause);
+    }
+
+    /**
+     * @return the number of objects removed to make room or rejected by the eviction policy
+     */
+    public long evictionCount() {
+        return removalCount(RemovalCause.SIZE);
+    }
+
+    /**
+     * @return the number of objects removed because they timed out
+     */
+    public long expirationCount() {
+        return removalCount(RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public String toString() {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("hitCount", hitCount);
+        obj.addProperty("missCount", missCount);
+        obj.addProperty("hitRate", hitRate());
+        obj.addProperty("secondLevelHitCount", secondLevelHitCount);
+        obj.addProperty("loadSuccessCount", loadSuccessCount);
+        obj.addProperty("loadFailureCount", loadFailureCount);
+        obj.addProperty("totalLoadTime", totalLoadTime);
+        for (RemovalCause cause : RemovalCause.values()) {
+            obj.addProperty("removalCount" + cause, removalCounts.get(cause));
+        }
+        return obj.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package cpen221.mp3.cache;
+
+public interface Codec<T> {
+
+    /**
+     * @param t the object to write to disk
+     * @return the bytes representing t, from which decode can rebuild an equivalent object
+     */
+    byte[] encode(T t);
+
+    /**
+     * @param id the identifier of the object that was encoded
+     * @param bytes the bytes returned by encode for that object
+     * @return an object equivalent to the one that was encoded, with the identifier id
+     */
+    T decode(String id, byte[] bytes);
+
+}
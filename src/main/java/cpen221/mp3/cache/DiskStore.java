@@ -0,0 +1,374 @@
+package cpen221.mp3.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An append-only store of objects on disk, used as the second level of a Cache.
+ * Objects are appended to fixed-size segment files that are memory-mapped, and an
+ * in-memory index relates every identifier with the location of its latest record.
+ * The index is rebuilt by scanning the segments when a store is opened, so the
+ * objects survive restarts. When the segments take up more than the store's budget
+ * the oldest segment is deleted, along with every object it holds.
+ *
+ * Each record is laid out as: the length of the rest of the record, the time the object
+ * was written, the length of the identifier, the identifier in UTF-8 and the encoded object.
+ * An object moved to the store from a Cache keeps the time it was first written to the
+ * cache, so that it goes stale no later than it would have in memory.
+ * A length of 0 marks the end of the records in a segment.
+ *
+ * @param <T> represents a Cacheable type
+ */
+public class DiskStore<T extends Cacheable> implements Closeable {
+
+    /* the default size of each segment file is 16 MB */
+    public static final int DSEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final Path directory;
+    private final Codec<T> codec;
+    private final long maxBytes;
+    private final long timeout;
+    private final int segmentSize;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, Segment> segments = new TreeMap<>();
+    private final List<Path> retired = new ArrayList<>();
+    private Segment current;
+
+    //  Representation Invariant:
+    //      - segments is not empty, and current is the segment with the greatest number
+    //      - every location in index refers to a segment in segments and to the offset of the latest
+    //        record for its identifier
+    //      - the number of segments times segmentSize is at most maxBytes, unless there is only one segment
+    //      - lock is a valid lock on the lock file of directory, held by this store
+    //      - retired holds the files of segments dropped from segments that could not be deleted yet
+    //
+    //  Abstraction Function:
+    //      Represents the objects whose records are referred to by index, each written to disk at the time in
+    //      its record. Records older than timeout represent nothing. segments relates the number of each
+    //      segment file in directory with its mapping, and new records are appended to current.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - directory, codec, maxBytes, timeout, segmentSize, lockChannel, lock, index, segments and retired are final
+    //      - index is a thread safe type ConcurrentHashMap
+    //      - segments, retired, current and the position of each segment are only accessed while holding the lock
+    //        on this
+    //      - get reads a record through its own duplicate of the mapping, and records are never changed once
+    //        their location has been published in index
+    //      - the lock file keeps any other store, in this or another process, from using directory at the same time
+
+    /**
+     * An object read from the store, along with the time it was written.
+     */
+    public static final class Entry<T> {
+        private final T value;
+        private final long writeTime;
+
+        Entry(T value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+
+        /**
+         * @return the object of this entry
+         */
+        public T value() {
+            return value;
+        }
+
+        /**
+         * @return the time in milliseconds at which the object was written
+         */
+        public long writeTime() {
+            return writeTime;
+        }
+    }
+
+    /**
+     * A location of a record in a segment.
+     */
+    private static final class Location {
+        private final Segment segment;
+        private final int offset;
+
+        Location(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A memory-mapped segment file and the offset at which its next record will be written.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position;
+
+        Segment(Path path, int size) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Open the store kept in directory, creating it if it does not exist, and index every record in it.
+     *
+     * @param directory the directory holding the segment files
+     * @param codec converts objects to and from bytes
+     * @param maxBytes the most disk space the segments may take up
+     * @param timeout the duration in seconds after which a record is considered stale
+     * @throws IOException if the directory cannot be read or written, or is in use by another store
+     */
+    public DiskStore(Path directory, Codec<T> codec, long maxBytes, int timeout) throws IOException {
+        this(directory, codec, maxBytes, timeout, DSEGMENT_SIZE);
+    }
+
+    /**
+     * Open the store kept in directory, creating it if it does not exist, and index every record in it.
+     *
+     * @param directory the directory holding the segment files
+     * @param codec converts objects to and from bytes
+     * @param maxBytes the most disk space the segments may take up
+     * @param timeout the duration in seconds after which a record is considered stale
+     * @param segmentSize the size in bytes of each segment file, which bounds the size of a record.
+     *                    Must be the same every time directory is opened
+     * @throws IOException if the directory cannot be read or written, or is in use by another store
+     */
+    public DiskStore(Path directory, Codec<T> codec, long maxBytes, int timeout, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.maxBytes = maxBytes;
+        this.timeout = timeout * 1000L;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException(directory + " is in use by another store");
+        }
+        lock = fileLock;
+
+        NavigableMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        // segments that could not be deleted while they were mapped, the last time the store was open, are deleted now
+        while (files.size() > 1 && (long) files.size() * segmentSize > maxBytes) {
+            Files.deleteIfExists(files.pollFirstEntry().getValue());
+        }
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            segments.put(file.getKey(), new Segment(file.getValue(), segmentSize));
+        }
+        for (Segment segment : segments.values()) {
+            scan(segment);
+        }
+
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            current = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Index every record in segment, in the order they were written, and find the end of its records.
+     */
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = 0;
+
+        while (offset + HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + Integer.BYTES + length > segmentSize) {
+                break;
+            }
+            int idLength = buffer.getInt(offset + Integer.BYTES + Long.BYTES);
+            // a record torn or corrupted by a crash ends the records of the segment, like a length of 0
+            if (length < Long.BYTES + Integer.BYTES || idLength < 0 || idLength > length - Long.BYTES - Integer.BYTES) {
+                break;
+            }
+            byte[] id = new byte[idLength];
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(id);
+            index.put(new String(id, StandardCharsets.UTF_8), new Location(segment, offset));
+            offset += Integer.BYTES + length;
+        }
+
+        segment.position = offset;
+    }
+
+    /**
+     * Retrieve the object with the identifier id, if it was written within the timeout period.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object with the identifier id, or null if there is none or it is stale
+     */
+    public T get(String id) {
+        Entry<T> entry = getEntry(id);
+        return entry == null ? null : entry.value();
+    }
+
+    /**
+     * Retrieve the object with the identifier id, and the time it was written, as get does.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object with the identifier id and its write time, or null if there is none or it is stale
+     */
+    public Entry<T> getEntry(String id) {
+        Location location = index.get(id);
+        if (location == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = location.segment.buffer.duplicate();
+        int length = buffer.getInt(location.offset);
+        long writtenAt = buffer.getLong(location.offset + Integer.BYTES);
+        if (System.currentTimeMillis() > writtenAt + timeout) {
+            index.remove(id, location);
+            return null;
+        }
+
+        int idLength = buffer.getInt(location.offset + Integer.BYTES + Long.BYTES);
+        byte[] bytes = new byte[length - Long.BYTES - Integer.BYTES - idLength];
+        buffer.position(location.offset + HEADER_SIZE + idLength);
+        buffer.get(bytes);
+        return new Entry<>(codec.decode(id, bytes), writtenAt);
+    }
+
+    /**
+     * Append t to the store, replacing any earlier record with the same identifier.
+     * If the current segment is full a new one is started, deleting the oldest segments
+     * if the store would otherwise exceed its budget.
+     *
+     * @param t the object to write
+     * @return true if t was written, false if its record is larger than a segment
+     *         or the segment files could not be written
+     */
+    public boolean put(T t) {
+        return put(t, System.currentTimeMillis());
+    }
+
+    /**
+     * Append t to the store as put does, recording that it was written at writeTime rather than now.
+     * The record goes stale once timeout has passed since writeTime.
+     *
+     * @param t the object to write
+     * @param writeTime the time in milliseconds at which t was first written, no later than now
+     * @return true if t was written, false if its record is larger than a segment
+     *         or the segment files could not be written
+     */
+    public synchronized boolean put(T t, long writeTime) {
+        byte[] id = t.id().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = codec.encode(t);
+        int length = Long.BYTES + Integer.BYTES + id.length + bytes.length;
+
+        if (Integer.BYTES + length > segmentSize) {
+            return false;
+        }
+
+        try {
+            if (current.position + Integer.BYTES + length > segmentSize) {
+                roll();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        int offset = current.position;
+        ByteBuffer buffer = current.buffer.duplicate();
+        buffer.position(offset + Integer.BYTES);
+        buffer.putLong(writeTime);
+        buffer.putInt(id.length);
+        buffer.put(id);
+        buffer.put(bytes);
+        // the length is written last so that a record cut short by a crash reads as the end of the segment
+        buffer.putInt(offset, length);
+        current.position = offset + Integer.BYTES + length;
+
+        index.put(t.id(), new Location(current, offset));
+        return true;
+    }
+
+    /**
+     * Start a new segment, deleting the oldest segments while the store would exceed maxBytes.
+     * Must be called while holding the lock on this.
+     */
+    private void roll() throws IOException {
+        int number = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+
+        while (!segments.isEmpty() && (long) (segments.size() + 1) * segmentSize > maxBytes) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            index.values().removeIf(location -> location.segment == oldest);
+            oldest.close();
+            retired.add(oldest.path);
+        }
+        deleteRetired();
+
+        current = new Segment(directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX)), segmentSize);
+        segments.put(number, current);
+    }
+
+    /**
+     * Delete the files of the segments dropped from the store. Some systems, such as Windows, refuse to
+     * delete a file while it is still mapped, and a mapping is only released once it is garbage collected,
+     * so a file that cannot be deleted yet is kept and tried again on the next roll, on close, and when
+     * the store is next opened. Must be called while holding the lock on this.
+     */
+    private void deleteRetired() {
+        retired.removeIf(path -> {
+            try {
+                Files.deleteIfExists(path);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Flush every segment to disk and release the directory.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        deleteRetired();
+        lock.release();
+        lockChannel.close();
+    }
+}
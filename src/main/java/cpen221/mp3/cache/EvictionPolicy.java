@@ -0,0 +1,22 @@
+package cpen221.mp3.cache;
+
+/**
+ * The ways a Cache can choose which objects to remove when it is full.
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Remove the least recently accessed objects. Every new object is admitted.
+     */
+    LRU,
+
+    /**
+     * Window TinyLFU. New objects enter a small LRU window holding 1% of the capacity.
+     * An object pushed out of the window is only admitted to the rest of the cache if it
+     * has been accessed more often recently than the object it would displace, as estimated
+     * by a frequency sketch, so objects that are only ever requested once cannot flush out
+     * popular ones.
+     */
+    TINY_LFU
+
+}
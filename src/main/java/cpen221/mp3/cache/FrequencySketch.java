@@ -0,0 +1,127 @@
+package cpen221.mp3.cache;
+
+/**
+ * A count-min sketch estimating how often each identifier has been accessed recently,
+ * used by the TinyLFU eviction policy of Cache.
+ * Each identifier maps to four 4-bit counters, sixteen of which are packed into every long
+ * of the table, and its frequency is the smallest of them. Once the number of recorded
+ * accesses reaches ten times the width of the table, every counter is halved so that
+ * the estimates favour recent history.
+ *
+ * The layout of the table, the hashing seeds and the reset follow FrequencySketch of the Caffeine
+ * caching library (https://github.com/ben-manes/caffeine), copyright Ben Manes, which is licensed
+ * under the Apache License, Version 2.0 (https://www.apache.org/licenses/LICENSE-2.0).
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    /* clears the top bit of every 4-bit counter after shifting the table right by one */
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_WIDTH = 1 << 18;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int size;
+
+    //  Representation Invariant:
+    //      - table.length is a power of two
+    //      - 0 <= size < sampleSize
+    //
+    //  Abstraction Function:
+    //      Represents an estimate of the number of times each identifier was recorded since the last few
+    //      resets. The estimate for an identifier is the minimum of the four counters it hashes to.
+    //      size is the number of recorded accesses since the last reset.
+    //
+    // Thread safety argument:
+    //      This class is not thread-safe. Cache only uses it while holding its eviction lock.
+
+    /**
+     * Create a sketch sized for a cache holding about expectedEntries objects.
+     *
+     * @param expectedEntries the expected number of objects in the cache, must be greater than 0
+     */
+    FrequencySketch(long expectedEntries) {
+        int width = (int) Math.min(Math.max(expectedEntries, 16), MAX_WIDTH);
+        table = new long[Integer.highestOneBit(width - 1) << 1];
+        sampleSize = 10 * table.length;
+    }
+
+    /**
+     * @param id the identifier to look up
+     * @return the estimated number of recent accesses of id, between 0 and 15
+     */
+    int frequency(String id) {
+        int hash = spread(id.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access of id, halving every counter if enough accesses have been recorded.
+     *
+     * @param id the identifier that was accessed
+     */
+    void increment(String id) {
+        int hash = spread(id.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Increment the counter at position counter of table[index] unless it is already at its maximum.
+     *
+     * @return true if the counter was incremented
+     */
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halve every counter and the number of recorded accesses.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    /**
+     * @return the index of the long in table holding the i-th counter for hash
+     */
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    /**
+     * Mix the bits of a String hash code, which are poorly distributed for similar identifiers.
+     */
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
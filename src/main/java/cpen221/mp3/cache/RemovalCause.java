@@ -0,0 +1,24 @@
+package cpen221.mp3.cache;
+
+/**
+ * The reasons an object can be removed from a Cache.
+ */
+public enum RemovalCause {
+
+    /**
+     * The object was removed to make room, or was not admitted by the eviction policy.
+     */
+    SIZE,
+
+    /**
+     * The object was not touched within the timeout period.
+     */
+    EXPIRED,
+
+    /**
+     * The object was replaced by a call to update, or by the newer object loaded when it was
+     * refreshed in the background.
+     */
+    REPLACED
+
+}
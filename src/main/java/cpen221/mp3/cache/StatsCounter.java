@@ -0,0 +1,78 @@
+package cpen221.mp3.cache;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the statistics of a Cache as it is used. Every counter is a LongAdder,
+ * which spreads concurrent increments over separate cells, so recording from many
+ * threads at once does not contend on a single variable.
+ */
+class StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder secondLevelHitCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final Map<RemovalCause, LongAdder> removalCounts = new EnumMap<>(RemovalCause.class);
+
+    //  Abstraction Function:
+    //      Represents the statistics that snapshot() reports, as running totals.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because every field is final, every counter is a thread safe
+    //      LongAdder, and removalCounts is filled in the constructor and never changed afterwards.
+
+    StatsCounter() {
+        for (RemovalCause cause : RemovalCause.values()) {
+            removalCounts.put(cause, new LongAdder());
+        }
+    }
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    void recordSecondLevelHit() {
+        secondLevelHitCount.increment();
+    }
+
+    /**
+     * @param loadTime the time the load took, in nanoseconds
+     */
+    void recordLoadSuccess(long loadTime) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    /**
+     * @param loadTime the time the load took before failing, in nanoseconds
+     */
+    void recordLoadFailure(long loadTime) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    void recordRemoval(RemovalCause cause) {
+        removalCounts.get(cause).increment();
+    }
+
+    /**
+     * @return the statistics recorded so far. Counters updated while the snapshot is
+     *         taken may or may not be included
+     */
+    CacheStats snapshot() {
+        Map<RemovalCause, Long> removals = new EnumMap<>(RemovalCause.class);
+        for (Map.Entry<RemovalCause, LongAdder> entry : removalCounts.entrySet()) {
+            removals.put(entry.getKey(), entry.getValue().sum());
+        }
+        return new CacheStats(hitCount.sum(), missCount.sum(), secondLevelHitCount.sum(),
+                loadSuccessCount.sum(), loadFailureCount.sum(), totalLoadTime.sum(), removals);
+    }
+}
@@ -0,0 +1,13 @@
+package cpen221.mp3.cache;
+
+public interface Weigher<T> {
+
+    /**
+     * @param t the object to weigh
+     * @return the estimated size of t in whatever unit the cache budget is given in,
+     *         such as bytes. Must be greater than or equal to 0 and must not change
+     *         while t is in the cache
+     */
+    long weigh(T t);
+
+}
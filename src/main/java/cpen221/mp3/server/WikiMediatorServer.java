@@ -3,6 +3,7 @@ package cpen221.mp3.server;
 import com.google.gson.*;
 import com.sun.jdi.InvalidTypeException;
 import cpen221.mp3.wikimediator.InvalidQueryException;
+import cpen221.mp3.wikimediator.TitleStream;
 import cpen221.mp3.wikimediator.WikiMediator;
 import fastily.jwiki.core.Wiki;
 
@@ -12,6 +13,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -20,6 +22,9 @@ public class WikiMediatorServer {
 
     /** Default port number where the server listens for connections. */
     public static final int WIKI_MEDIATOR_PORT = 4949;
+    /* a streamed getConnectedPages reply sends up to 100 titles per line */
+    private static final int STREAM_CHUNK_TITLES = 100;
+    private static final String PARTIAL = "partial";
 
     private ServerSocket serverSocket;
     private final Integer maxThreadsCount;
@@ -150,6 +155,12 @@ public class WikiMediatorServer {
             this.response = response;
         }
 
+        public response(String id, String status, String response) {
+            this.id = id;
+            this.status = status;
+            this.response = response;
+        }
+
         @Override
         public String toString() {
             return "response [id=" + id + ", status=" + status + ", response=" + response +  "]";
@@ -165,10 +176,23 @@ public class WikiMediatorServer {
      * @param n the number of concurrent requests the server can handle
      */
     public WikiMediatorServer(int port, int n) throws IOException {
+        this(port, n, new WikiMediator(Paths.get("local", "cache")));
+    }
+
+    /**
+     * Start a server at a given port number, with the ability to process
+     * up to n requests concurrently, answering them with wm.
+     *
+     * @param port the port number to bind the server to
+     *             port number, requires 0 <= port <= 65535
+     * @param n the number of concurrent requests the server can handle
+     * @param wm the mediator that answers the requests
+     */
+    public WikiMediatorServer(int port, int n, WikiMediator wm) throws IOException {
         maxThreadsCount = n;
         currThreadCount = new AtomicInteger(0);
         serverSocket = new ServerSocket(port);
-        wm = new WikiMediator();
+        this.wm = wm;
         gson = new GsonBuilder().setLenient().disableHtmlEscaping().create();
     }
 
@@ -228,86 +252,21 @@ public class WikiMediatorServer {
         // that we have more convenient ways to write Java primitive
         // types to it.
         PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
-        ExecutorService exec = Executors.newCachedThreadPool();
 
 
             for (String line = in.readLine(); line != null; line = in.readLine()) {
                 System.err.println("request: " + line);
                 JsonObject jObj = gson.fromJson(line, JsonObject.class);
-                Future<response> future = exec.submit(() -> {
-
-                    String res = "";
-                    Boolean status = false;
-
-                    switch (jObj.get("type").getAsString()) {
-                        case "simpleSearch":
-                            simpleSearchRequest ssrequest;
-                            ssrequest = gson.fromJson(jObj, simpleSearchRequest.class);
-                            try {
-                                List<String> searchList = wm.simpleSearch(ssrequest.query, Integer.parseInt(ssrequest.limit));
-                                res = searchList.toString();
-                                status = true;
-                            } catch (Exception e) {
-                                res = e.toString();
-                            }
-                            break;
-
-                        case "getPage":
-                            getPageRequest gprequest = gson.fromJson(jObj, getPageRequest.class);
-                            try {
-                                res = wm.getPage(gprequest.pageTitle);
-                                status = true;
-                            } catch (Exception e) {
-                                res = e.toString();
-                            }
-                            break;
-
-                        case "getConnectedPages":
-                            getConnectedPagesRequest gcrequest = gson.fromJson(jObj, getConnectedPagesRequest.class);
-                            try {
-                                List<String> searchList = wm.getConnectedPages(gcrequest.pageTitle, Integer.parseInt(gcrequest.hops));
-                                res = searchList.toString();
-                                status = true;
-                            } catch (Exception e) {
-                                res = e.toString();
-                            }
-                            break;
-
-                        case "trending":
-                            zeitTrendRequest trequest = gson.fromJson(jObj, zeitTrendRequest.class);
-                            try {
-                                List<String> searchList = wm.trending(Integer.parseInt(trequest.limit));
-                                res = searchList.toString();
-                                status = true;
-                            } catch (Exception e) {
-                                res = e.toString();
-                            }
-                            break;
-
-                        case "zeitgeist":
-                            zeitTrendRequest zrequest = gson.fromJson(jObj, zeitTrendRequest.class);
-                            try {
-                                List<String> searchList = wm.zeitgeist(Integer.parseInt(zrequest.limit));
-                                res = searchList.toString();
-                                status = true;
-                            } catch (Exception e) {
-                                res = e.toString();
-                            }
-                            break;
-
-                        case "peakLoad30s":
-                            try {
-                                res = String.valueOf(wm.peakLoad30s());
-                                status = true;
-                            } catch (Exception e) {
-                                res = e.toString();
-                            }
-                            break;
-                    }
-                    response resp = new response(jObj.get("id").getAsString(), status, res);
-
-                    return resp;
-                });
+                String id = jObj.get("id").getAsString();
+                if (jObj.get("type").getAsString().equals("getConnectedPages") && jObj.has("stream")
+                        && jObj.get("stream").getAsBoolean()) {
+                    streamConnectedPages(jObj, out);
+                    continue;
+                }
+                CompletableFuture<String> operation = dispatch(jObj);
+                CompletableFuture<response> future = operation
+                        .handle((res, e) -> e == null ? new response(id, true, res)
+                                : new response(id, false, unwrap(e).toString()));
 
                 String reply = "";
                 try {
@@ -322,8 +281,11 @@ public class WikiMediatorServer {
                     out.println(reply);
                     out.flush();
                 } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                    response res = new response(jObj.get("id").getAsString(), false, "Operation timed out");
+                    response res = new response(id, false, "Operation timed out");
                     reply = gson.toJson(res);
+                    // cancel the operation itself, not only the reply built on it; dispatch passes the
+                    // cancellation on to the search behind it, which stops before its next level
+                    operation.cancel(true);
                     future.cancel(true);
                     e.printStackTrace();
                     System.err.println("reply: " + reply);
@@ -337,6 +299,116 @@ public class WikiMediatorServer {
 
     }
 
+    /**
+     * Reply to a getConnectedPages request that asked for "stream": true with one line per batch of
+     * titles, as the mediator finds them hop by hop. Every line but the last has the status "partial"
+     * and up to 100 titles as its response; the last one has the status "succeeded" and an empty list,
+     * or "failed" if the search failed or did not finish within the timeout of the request. The search
+     * only goes on as fast as the lines can be written to the client.
+     *
+     * @param jObj the request
+     * @param out the writer to the client
+     */
+    private void streamConnectedPages(JsonObject jObj, PrintWriter out) {
+        String id = jObj.get("id").getAsString();
+        getConnectedPagesRequest gcrequest = gson.fromJson(jObj, getConnectedPagesRequest.class);
+        long deadline = jObj.get("timeout") != null
+                ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(jObj.get("timeout").getAsLong())
+                : Long.MAX_VALUE;
+
+        response last;
+        try (TitleStream stream = wm.streamConnectedPages(gcrequest.pageTitle, Integer.parseInt(gcrequest.hops))) {
+            while (true) {
+                List<String> titles = stream.nextAvailable(STREAM_CHUNK_TITLES, deadline);
+                if (titles == null) {
+                    last = new response(id, false, "Operation timed out");
+                    break;
+                } else if (titles.isEmpty()) {
+                    last = new response(id, true, titles.toString());
+                    break;
+                }
+                reply(out, new response(id, PARTIAL, titles.toString()));
+            }
+        } catch (Exception e) {
+            last = new response(id, false, e.toString());
+        }
+        reply(out, last);
+    }
+
+    private void reply(PrintWriter out, response res) {
+        String reply = gson.toJson(res);
+        System.err.println("reply: " + reply);
+        out.println(reply);
+        out.flush();
+    }
+
+    /**
+     * Start the operation a request asks for. getPage, simpleSearch and getConnectedPages run through
+     * the asynchronous API of the mediator, so no thread is held while they wait for Wikipedia; the
+     * statistics are answered at once.
+     *
+     * @param jObj the request
+     * @return the future response text of the operation, which fails with whatever the operation threw
+     */
+    private CompletableFuture<String> dispatch(JsonObject jObj) {
+        try {
+            switch (jObj.get("type").getAsString()) {
+                case "simpleSearch":
+                    simpleSearchRequest ssrequest = gson.fromJson(jObj, simpleSearchRequest.class);
+                    return wm.simpleSearchAsync(ssrequest.query, Integer.parseInt(ssrequest.limit))
+                            .thenApply(List::toString);
+
+                case "getPage":
+                    getPageRequest gprequest = gson.fromJson(jObj, getPageRequest.class);
+                    return wm.getPageAsync(gprequest.pageTitle);
+
+                case "getConnectedPages":
+                    getConnectedPagesRequest gcrequest = gson.fromJson(jObj, getConnectedPagesRequest.class);
+                    CompletableFuture<List<String>> pages =
+                            wm.getConnectedPagesAsync(gcrequest.pageTitle, Integer.parseInt(gcrequest.hops));
+                    return cancelling(pages.thenApply(List::toString), pages);
+
+                case "trending":
+                    zeitTrendRequest trequest = gson.fromJson(jObj, zeitTrendRequest.class);
+                    return CompletableFuture.completedFuture(wm.trending(Integer.parseInt(trequest.limit)).toString());
+
+                case "zeitgeist":
+                    zeitTrendRequest zrequest = gson.fromJson(jObj, zeitTrendRequest.class);
+                    return CompletableFuture.completedFuture(wm.zeitgeist(Integer.parseInt(zrequest.limit)).toString());
+
+                case "peakLoad30s":
+                    return CompletableFuture.completedFuture(String.valueOf(wm.peakLoad30s()));
+            }
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return CompletableFuture.failedFuture(new IllegalArgumentException(jObj.get("type").getAsString()));
+    }
+
+    /**
+     * @param reply a future derived from source
+     * @param source the future of the operation itself
+     * @return reply, which cancels source when it is cancelled, since cancelling a derived future
+     *         does not reach the one it was derived from
+     */
+    private static <T> CompletableFuture<T> cancelling(CompletableFuture<T> reply, CompletableFuture<?> source) {
+        reply.whenComplete((res, e) -> {
+            if (reply.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return reply;
+    }
+
+    /**
+     * @param e the exception a future failed with
+     * @return the exception the operation itself threw, if e only wraps it
+     */
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
     /**
      * Start a WikiMediatorServer running on the default port.
      */
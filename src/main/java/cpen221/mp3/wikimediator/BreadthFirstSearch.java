@@ -0,0 +1,255 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Finds the pages within a number of hops of a page, one level at a time. The links of every
+ * page in a level are requested at once, so that they can be fetched concurrently and in batches,
+ * and the next level is only started once they have all arrived, as LinkGraph describes.
+ * Pages are handled by their ids in the generation of graph taken when the search starts, with
+ * the levels kept in int lists and the visited pages in a bitset, so only the final result is
+ * turned back into titles.
+ */
+class BreadthFirstSearch {
+
+    private final LinkGraph graph;
+
+    //  Representation Invariant:
+    //      - graph is not null
+    //
+    //  Abstraction Function:
+    //      Represents a search over the links in graph.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - graph is final and a thread safe type LinkGraph
+    //      - every search keeps its levels and visited set in its own Exploration, which only one stage uses at
+    //        a time, and each stage starts after the one before it completes; the fetching threads only hand
+    //        their results back through futures
+
+    /**
+     * Create a search over graph.
+     *
+     * @param graph the links between pages
+     */
+    BreadthFirstSearch(LinkGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Find every page that can be reached from pageTitle by following up to hops links, without waiting
+     * for the links of any level: each level is expanded on executor once its links have arrived.
+     * Each page is visited once, at the level of the shortest path to it, so a page that is
+     * first seen through a long path is still expanded if a shorter one exists.
+     *
+     * @param pageTitle the title of the page to start from
+     * @param hops the greatest number of links to follow, at least 0
+     * @param executor expands each level
+     * @return the future pages within hops links of pageTitle, which fails with whatever fetching the links
+     *         of a page failed with. Completing or cancelling it stops the search before its next level
+     */
+    CompletableFuture<Neighbourhood> withinAsync(String pageTitle, int hops, Executor executor) {
+        CompletableFuture<Neighbourhood> result = new CompletableFuture<>();
+        explore(new Exploration(graph.generation(), pageTitle, hops), executor, null, result);
+        return result;
+    }
+
+    /**
+     * Find every page that can be reached from pageTitle by following up to hops links, as withinAsync
+     * does, handing the titles of each level to onLevel as soon as it is expanded, pageTitle first.
+     * The next level is only fetched once the future onLevel returns for the level before it completes.
+     *
+     * @param pageTitle the title of the page to start from
+     * @param hops the greatest number of links to follow, at least 0
+     * @param executor expands each level
+     * @param onLevel takes the titles of the pages first reached at each distance, returning a future that
+     *        completes when the search may go on, or fails to stop the search
+     * @return the future pages within hops links of pageTitle, which fails with whatever fetching the links
+     *         of a page or onLevel failed with. Completing or cancelling it stops the search before its next level
+     */
+    CompletableFuture<Neighbourhood> withinAsync(String pageTitle, int hops, Executor executor,
+                                                 Function<List<String>, CompletableFuture<?>> onLevel) {
+        Exploration search = new Exploration(graph.generation(), pageTitle, hops);
+        List<String> start = new ArrayList<>();
+        start.add(pageTitle);
+        CompletableFuture<Neighbourhood> result = new CompletableFuture<>();
+        onLevel.apply(start).thenRunAsync(() -> explore(search, executor, onLevel, result), executor)
+                .exceptionally(e -> fail(result, e));
+        return result;
+    }
+
+    /**
+     * The state of one search between levels. Each level is expanded by a single stage after the one
+     * before it, so the state is never used by two threads at once. Its pages are ids in the generation
+     * of the graph it took when it started.
+     */
+    private static final class Exploration {
+        private final LinkGraph.Generation pages;
+        private final BitSet visited = new BitSet();
+        private final IntList included = new IntList(64);
+        private final int[] ends;
+        private IntList level = new IntList(1);
+        private int depth;
+
+        Exploration(LinkGraph.Generation pages, String pageTitle, int hops) {
+            this.pages = pages;
+            int start = pages.id(pageTitle);
+            visited.set(start);
+            included.add(start);
+            level.add(start);
+            ends = new int[hops + 1];
+            ends[0] = 1;
+        }
+    }
+
+    /**
+     * Expand the levels of search that remain, one after the other, completing result with the pages found
+     * once every level has been expanded. Nothing more is fetched once result is done, as it is when the
+     * caller cancels it or gives up waiting on it.
+     *
+     * @param search the search so far
+     * @param executor expands each level
+     * @param onLevel takes the titles of each level once it is expanded, or null
+     * @param result the future pages found, failed with whatever fetching a level or onLevel failed with
+     */
+    private void explore(Exploration search, Executor executor, Function<List<String>, CompletableFuture<?>> onLevel,
+                         CompletableFuture<Neighbourhood> result) {
+        if (result.isDone()) {
+            return;
+        }
+        int hops = search.ends.length - 1;
+        if (search.depth == hops || search.level.isEmpty()) {
+            for (int depth = search.depth + 1; depth <= hops; depth++) {
+                search.ends[depth] = search.included.size();
+            }
+            result.complete(new Neighbourhood(search.pages.titles(search.included.toArray()), search.ends));
+            return;
+        }
+
+        fetchLevelAsync(search.level, search.pages::linksAsync).thenAcceptAsync(linked -> {
+            IntList next = new IntList(Math.max(search.level.size(), 16));
+            for (int[] pages : linked) {
+                for (int page : pages) {
+                    if (!search.visited.get(page)) {
+                        search.visited.set(page);
+                        search.included.add(page);
+                        next.add(page);
+                    }
+                }
+            }
+            search.level = next;
+            search.depth++;
+            search.ends[search.depth] = search.included.size();
+            if (onLevel == null) {
+                explore(search, executor, null, result);
+                return;
+            }
+            onLevel.apply(search.pages.titles(next.toArray()))
+                    .thenRunAsync(() -> explore(search, executor, onLevel, result), executor)
+                    .exceptionally(e -> fail(result, e));
+        }, executor).exceptionally(e -> fail(result, e));
+    }
+
+    /**
+     * @param result the future result of a search
+     * @param e what a stage of the search failed with
+     * @return null, having failed result with e
+     */
+    static Void fail(CompletableFuture<?> result, Throwable e) {
+        result.completeExceptionally(e);
+        return null;
+    }
+
+    /**
+     * Request the links of every page in level at once.
+     *
+     * @param level the ids of the pages to fetch the links of
+     * @param links requests the ids of the pages adjacent to one page
+     * @return the future ids adjacent to each page, in the order of level, which fails with whatever
+     *         the first failed fetch failed with
+     */
+    static CompletableFuture<int[][]> fetchLevelAsync(IntList level, IntFunction<CompletableFuture<int[]>> links) {
+        List<CompletableFuture<int[]>> fetches = new ArrayList<>(level.size());
+        for (int i = 0; i < level.size(); i++) {
+            fetches.add(links.apply(level.get(i)));
+        }
+
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            int[][] results = new int[fetches.size()][];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = fetches.get(i).join();
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Request the results for every item in level at once, and wait for them all.
+     *
+     * @param level the items to fetch the results of
+     * @param fetch requests the result of one item
+     * @return the result of each item, in the order of level
+     * @throws RuntimeException whatever a fetch failed with, or CompletionException if the calling thread
+     *         was interrupted
+     */
+    static <P, L> List<L> fetchAll(List<P> level, Function<P, ? extends CompletableFuture<L>> fetch) {
+        List<CompletableFuture<L>> fetches = new ArrayList<>();
+        for (P page : level) {
+            fetches.add(fetch.apply(page));
+        }
+
+        List<L> results = new ArrayList<>();
+        try {
+            for (CompletableFuture<L> result : fetches) {
+                results.add(result.get());
+            }
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Wait for future, rethrowing what it failed with as is.
+     *
+     * @param future the result to wait for
+     * @return the result of future
+     * @throws RuntimeException whatever future failed with, if it was unchecked
+     */
+    static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param e the failure of a fetch
+     * @return the exception the fetch failed with, if unchecked, to be rethrown as is
+     */
+    private static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        } else if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return new CompletionException(e.getCause());
+    }
+}
@@ -0,0 +1,93 @@
+package cpen221.mp3.wikimediator;
+
+/**
+ * Identifies a cached result by the operation that produced it and the query it was produced for,
+ * rather than by the hash code of the query, so that two different queries never share an entry.
+ * Parameters such as the limit of a search or the hops of getConnectedPages are not part of the key:
+ * one entry holds enough to answer every value of them it covers.
+ */
+final class CacheKey {
+
+    private final String operation;
+    private final String query;
+
+    //  Representation Invariant:
+    //      - operation is not null, not empty and contains no ':'
+    //      - query is not null and normalized
+    //
+    //  Abstraction Function:
+    //      Represents the result of operation for query.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because it is immutable.
+
+    private CacheKey(String operation, String query) {
+        this.operation = operation;
+        this.query = query;
+    }
+
+    /**
+     * @param operation the name of the operation, containing no ':'
+     * @param title the title of a page, as the client wrote it
+     * @return the key of the result of operation for the page titled title
+     */
+    static CacheKey ofTitle(String operation, String title) {
+        return new CacheKey(operation, normalizeTitle(title));
+    }
+
+    /**
+     * @param operation the name of the operation, containing no ':'
+     * @param query words to search for, as the client wrote them
+     * @return the key of the result of operation for query
+     */
+    static CacheKey ofSearch(String operation, String query) {
+        return new CacheKey(operation, collapseSpaces(query));
+    }
+
+    /**
+     * Write title the way Wikipedia does: underscores are spaces, runs of spaces are one space,
+     * there are no spaces at either end, and the first letter is upper case.
+     *
+     * @param title the title of a page
+     * @return the normalized title
+     */
+    static String normalizeTitle(String title) {
+        String spaced = collapseSpaces(title.replace('_', ' '));
+        if (spaced.isEmpty()) {
+            return spaced;
+        }
+        int first = spaced.codePointAt(0);
+        return new StringBuilder(spaced.length())
+                .appendCodePoint(Character.toUpperCase(first))
+                .append(spaced, Character.charCount(first), spaced.length())
+                .toString();
+    }
+
+    /**
+     * @param text any string
+     * @return text without whitespace at either end, and with every run of whitespace replaced by one space
+     */
+    private static String collapseSpaces(String text) {
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return the query of this key, normalized
+     */
+    String query() {
+        return query;
+    }
+
+    /**
+     * @return the identifier of this key in a cache, which differs for any two keys with a different
+     *         operation or query
+     */
+    String id() {
+        return operation + ':' + query;
+    }
+
+    @Override
+    public String toString() {
+        return id();
+    }
+}
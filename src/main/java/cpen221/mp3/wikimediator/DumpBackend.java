@@ -0,0 +1,173 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A wiki served from the files DumpIngester wrote from a dump, so that looking up the text, links,
+ * backlinks, categories or last editor of a page reads mapped memory instead of waiting for the network.
+ * Pages that are not in the dump, such as those created since, and searches, category members and
+ * contributions, which the files do not index, are sent to a fallback backend instead.
+ */
+public final class DumpBackend implements WikiBackend {
+
+    private final DumpFiles dump;
+    private final WikiBackend fallback;
+
+    //  Representation Invariant:
+    //      - dump and fallback are not null, and dump has backlinks
+    //
+    //  Abstraction Function:
+    //      Represents the wiki whose pages are those in dump, followed by those of fallback that are not.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - dump and fallback are final
+    //      - dump is a thread safe type DumpFiles, and fallback is required to be thread safe
+
+    /**
+     * Serve the pages DumpIngester wrote into directory.
+     *
+     * @param directory the directory holding the files of a dump
+     * @param fallback the thread safe wiki to query for what is not in the dump, such as a JWikiBackend
+     * @throws IOException if a file of the dump is missing or could not be mapped
+     */
+    public DumpBackend(Path directory, WikiBackend fallback) throws IOException {
+        this.dump = DumpFiles.open(directory);
+        this.fallback = fallback;
+    }
+
+    /**
+     * @param title the title of a page, as the client wrote it
+     * @return the number of the page in the dump, or -1 if it is not there
+     */
+    private int find(String title) {
+        return dump.find(CacheKey.normalizeTitle(title));
+    }
+
+    @Override
+    public List<String> search(String query, int limit) {
+        return fallback.search(query, limit);
+    }
+
+    @Override
+    public String getPageText(String title) {
+        int page = find(title);
+        return page < 0 ? fallback.getPageText(title) : dump.string(page, DumpFiles.Field.TEXT);
+    }
+
+    @Override
+    public List<String> getLinksOnPage(String title) {
+        int page = find(title);
+        return page < 0 ? fallback.getLinksOnPage(title) : dump.list(page, DumpFiles.Field.LINKS);
+    }
+
+    @Override
+    public List<String> whatLinksHere(String title) {
+        int page = find(title);
+        return page < 0 ? fallback.whatLinksHere(title) : backlinks(page);
+    }
+
+    @Override
+    public List<String> getCategoriesOnPage(String title) {
+        int page = find(title);
+        return page < 0 ? fallback.getCategoriesOnPage(title) : dump.list(page, DumpFiles.Field.CATEGORIES);
+    }
+
+    @Override
+    public List<String> getCategoryMembers(String category) {
+        return fallback.getCategoryMembers(category);
+    }
+
+    @Override
+    public List<String> getContribs(String user) {
+        return fallback.getContribs(user);
+    }
+
+    @Override
+    public String getLastEditor(String title) {
+        int page = find(title);
+        return page < 0 ? fallback.getLastEditor(title) : lastEditor(page);
+    }
+
+    @Override
+    public Map<String, String> pageText(List<String> titles) {
+        return batch(titles, page -> dump.string(page, DumpFiles.Field.TEXT), fallback::pageText);
+    }
+
+    @Override
+    public Map<String, List<String>> links(List<String> titles) {
+        return batch(titles, page -> dump.list(page, DumpFiles.Field.LINKS), fallback::links);
+    }
+
+    @Override
+    public Map<String, List<String>> backlinks(List<String> titles) {
+        return batch(titles, this::backlinks, fallback::backlinks);
+    }
+
+    @Override
+    public Map<String, List<String>> categories(List<String> titles) {
+        return batch(titles, page -> dump.list(page, DumpFiles.Field.CATEGORIES), fallback::categories);
+    }
+
+    @Override
+    public Map<String, String> lastEditors(List<String> titles) {
+        return batch(titles, this::lastEditor, fallback::lastEditors);
+    }
+
+    /**
+     * Look titles up in the dump, sending those that are not in it to the fallback together.
+     *
+     * @param titles the titles of pages
+     * @param local looks up a page in the dump by its number
+     * @param remote looks up many titles with the fallback at once
+     * @return a map from each title to its result, leaving out null results
+     */
+    private <V> Map<String, V> batch(List<String> titles, IntFunction<V> local,
+                                     Function<List<String>, Map<String, V>> remote) {
+        Map<String, V> results = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String title : titles) {
+            int page = find(title);
+            if (page < 0) {
+                missing.add(title);
+            } else {
+                V result = local.apply(page);
+                if (result != null) {
+                    results.put(title, result);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            results.putAll(remote.apply(missing));
+        }
+        return results;
+    }
+
+    /**
+     * @param page the number of a page in the dump
+     * @return the titles of the pages that link to it, including redirects
+     */
+    private List<String> backlinks(int page) {
+        List<String> linking = new ArrayList<>();
+        for (int source : dump.backlinks(page)) {
+            linking.add(dump.string(source, DumpFiles.Field.TITLE));
+        }
+        return linking;
+    }
+
+    /**
+     * @param page the number of a page in the dump
+     * @return the name of the user who made its latest revision, or null if the dump does not say
+     */
+    private String lastEditor(int page) {
+        String editor = dump.string(page, DumpFiles.Field.EDITOR);
+        return editor.isEmpty() ? null : editor;
+    }
+}
@@ -0,0 +1,247 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The files DumpIngester writes into a directory, mapped into memory. Pages are numbered in the
+ * order of the dump. Each page has a record of fixed size in the record file, giving the offset
+ * and length of each of its fields in the segment file of that field:
+ *
+ *     pages.dat       one record of RECORD_BYTES per page: the offset of each field as a long, in the order
+ *                     of Field, then the length of each field as an int, then the flags of the page as an int
+ *     title.seg       the title of each page
+ *     text.seg        the wikitext of the latest revision of each page
+ *     links.seg       the titles of the pages each page links to, one per line
+ *     categories.seg  the titles of the categories each page is in, one per line
+ *     editor.seg      the name of the user who made the latest revision of each page
+ *     titles.idx      an open-addressed hash table from the title of each page to its number plus one,
+ *                     as one int per slot, with 0 for an empty slot
+ *     backlinks.idx   for each page, the number of its first entry in backlinks.seg, as a long,
+ *                     then the number of entries in backlinks.seg
+ *     backlinks.seg   for each page, the numbers of the pages that link to it, including redirects, as ints
+ *
+ * Every string is UTF-8, and every number is big-endian.
+ */
+final class DumpFiles {
+
+    /**
+     * The fields of a page, each kept in its own segment.
+     */
+    enum Field {
+        TITLE, TEXT, LINKS, CATEGORIES, EDITOR;
+
+        /**
+         * @return the name of the segment file holding this field
+         */
+        String file() {
+            return name().toLowerCase() + ".seg";
+        }
+    }
+
+    static final String RECORDS = "pages.dat";
+    static final String TITLE_INDEX = "titles.idx";
+    static final String BACKLINK_INDEX = "backlinks.idx";
+    static final String BACKLINKS = "backlinks.seg";
+
+    static final int FIELDS = Field.values().length;
+    static final int RECORD_BYTES = 64;
+    static final int FLAGS_OFFSET = FIELDS * (Long.BYTES + Integer.BYTES);
+    static final int REDIRECT = 1;
+
+    private final MappedSegment records;
+    private final MappedSegment[] fields;
+    private final MappedSegment titleIndex;
+    private final long slots;
+    private final MappedSegment backlinkIndex;
+    private final MappedSegment backlinks;
+
+    //  Representation Invariant:
+    //      - records holds RECORD_BYTES for each page, and fields[f.ordinal()] is the segment of Field f
+    //      - slots is a power of two greater than the number of pages, and titleIndex holds an int for each
+    //      - no two pages in titleIndex have the same title
+    //      - backlinkIndex and backlinks are both null, or hold the backlinks of every page
+    //
+    //  Abstraction Function:
+    //      Represents the pages of a dump, with the pages that link to each of them if backlinkIndex is not null.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - every field is final, and every segment is only read once the files are opened
+    //      - while DumpIngester builds titleIndex it is the only thread using this object
+
+    /**
+     * @param records the record file
+     * @param fields the segment of each field, in the order of Field
+     * @param titleIndex the title index
+     * @param backlinkIndex the backlink index, or null if backlinks have not been written
+     * @param backlinks the backlinks, or null if backlinks have not been written
+     */
+    DumpFiles(MappedSegment records, MappedSegment[] fields, MappedSegment titleIndex,
+              MappedSegment backlinkIndex, MappedSegment backlinks) {
+        this.records = records;
+        this.fields = fields;
+        this.titleIndex = titleIndex;
+        this.slots = titleIndex.size() / Integer.BYTES;
+        this.backlinkIndex = backlinkIndex;
+        this.backlinks = backlinks;
+    }
+
+    /**
+     * Map the files DumpIngester wrote into directory.
+     *
+     * @param directory the directory holding the files
+     * @return the pages in the files
+     * @throws IOException if a file is missing or could not be mapped
+     */
+    static DumpFiles open(Path directory) throws IOException {
+        return new DumpFiles(MappedSegment.read(directory.resolve(RECORDS)), openFields(directory),
+                MappedSegment.read(directory.resolve(TITLE_INDEX)),
+                MappedSegment.read(directory.resolve(BACKLINK_INDEX)),
+                MappedSegment.read(directory.resolve(BACKLINKS)));
+    }
+
+    /**
+     * @param directory the directory holding the segment files
+     * @return the segment of each field, in the order of Field
+     * @throws IOException if a file is missing or could not be mapped
+     */
+    static MappedSegment[] openFields(Path directory) throws IOException {
+        MappedSegment[] fields = new MappedSegment[FIELDS];
+        for (Field field : Field.values()) {
+            fields[field.ordinal()] = MappedSegment.read(directory.resolve(field.file()));
+        }
+        return fields;
+    }
+
+    /**
+     * @param pages the number of pages to index
+     * @return the number of slots of a title index for pages, a power of two at least twice pages
+     */
+    static long slotsFor(int pages) {
+        return Math.max(Long.highestOneBit(Math.max(pages, 1) * 2L - 1) << 1, 2);
+    }
+
+    /**
+     * @return the number of pages
+     */
+    int pages() {
+        return (int) (records.size() / RECORD_BYTES);
+    }
+
+    /**
+     * @param title the title of a page, normalized
+     * @return the number of the page titled title, or -1 if there is none
+     */
+    int find(String title) {
+        return titleIndex.getInt(slot(title.getBytes(StandardCharsets.UTF_8)) * Integer.BYTES) - 1;
+    }
+
+    /**
+     * Add page to the title index, unless a page with the same title is already in it.
+     * Only called by DumpIngester while it writes the index.
+     *
+     * @param page the number of a page
+     * @return false if another page has the same title
+     */
+    boolean index(int page) {
+        long slot = slot(bytes(page, Field.TITLE));
+        if (titleIndex.getInt(slot * Integer.BYTES) != 0) {
+            return false;
+        }
+        titleIndex.putInt(slot * Integer.BYTES, page + 1);
+        return true;
+    }
+
+    /**
+     * @param title the title of a page, in UTF-8
+     * @return the slot of the page titled title, or the empty slot where it belongs
+     */
+    private long slot(byte[] title) {
+        long mask = slots - 1;
+        long slot = hash(title) & mask;
+        while (true) {
+            int entry = titleIndex.getInt(slot * Integer.BYTES);
+            if (entry == 0 || Arrays.equals(bytes(entry - 1, Field.TITLE), title)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @param bytes any bytes
+     * @return the 32-bit FNV-1a hash of bytes, as a non-negative long
+     */
+    private static long hash(byte[] bytes) {
+        int hash = 0x811c9dc5;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash & 0xffffffffL;
+    }
+
+    /**
+     * @param page the number of a page
+     * @return true if the page is a redirect
+     */
+    boolean isRedirect(int page) {
+        return (records.getInt((long) page * RECORD_BYTES + FLAGS_OFFSET) & REDIRECT) != 0;
+    }
+
+    /**
+     * @param page the number of a page
+     * @param field a field of the page
+     * @return the field in UTF-8
+     */
+    byte[] bytes(int page, Field field) {
+        long record = (long) page * RECORD_BYTES;
+        long offset = records.getLong(record + (long) field.ordinal() * Long.BYTES);
+        int length = records.getInt(record + FIELDS * Long.BYTES + (long) field.ordinal() * Integer.BYTES);
+        return fields[field.ordinal()].bytes(offset, length);
+    }
+
+    /**
+     * @param page the number of a page
+     * @param field a field of the page holding a string
+     * @return the field
+     */
+    String string(int page, Field field) {
+        return new String(bytes(page, field), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param page the number of a page
+     * @param field a field of the page holding a list of titles
+     * @return the titles in the field, in order
+     */
+    List<String> list(int page, Field field) {
+        String lines = string(page, field);
+        if (lines.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, lines.split("\n"));
+        return list;
+    }
+
+    /**
+     * @param page the number of a page
+     * @return the numbers of the pages that link to page, including redirects, in the order of the dump
+     */
+    int[] backlinks(int page) {
+        long first = backlinkIndex.getLong((long) page * Long.BYTES);
+        long end = backlinkIndex.getLong((long) (page + 1) * Long.BYTES);
+        int[] linking = new int[(int) (end - first)];
+        for (int i = 0; i < linking.length; i++) {
+            linking[i] = backlinks.getInt((first + i) * Integer.BYTES);
+        }
+        return linking;
+    }
+}
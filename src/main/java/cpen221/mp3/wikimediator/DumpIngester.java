@@ -0,0 +1,361 @@
+package cpen221.mp3.wikimediator;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Turns a pages-articles XML dump of a wiki, such as enwiki-latest-pages-articles.xml.bz2, into the
+ * files DumpFiles describes, which a DumpBackend serves pages from. The dump is read with StAX one
+ * page at a time and written out as it is read, so memory use does not grow with the size of the dump;
+ * a dump whose name ends in .bz2 is decompressed as it is read. The title index and the backlinks are
+ * then built in files mapped into memory rather than on the heap.
+ *
+ * The links and categories of a page are the [[...]] in its wikitext. Links that only come from
+ * templates are left out, as are links to files and to other languages.
+ */
+public final class DumpIngester {
+
+    private static final Pattern INTERLANGUAGE = Pattern.compile("[a-z]{2,3}(-[a-z]+)*:.*");
+    private static final String CATEGORY = "Category:";
+
+    private DumpIngester() {
+    }
+
+    /**
+     * Ingest a dump from the command line.
+     *
+     * @param args the path of the dump, then the directory to write the files into
+     * @throws IOException if the dump could not be read or the files could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: DumpIngester <pages-articles.xml[.bz2]> <directory>");
+            System.exit(2);
+        }
+        int pages = ingest(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(pages + " pages written to " + args[1]);
+    }
+
+    /**
+     * Read every page of dump and write the files DumpFiles describes into directory, replacing any
+     * that are there. If the dump has several revisions of a page, the last one is kept; if it has
+     * several pages with the same title, the first one is found by its title.
+     *
+     * @param dump an XML dump of a wiki, compressed with bzip2 if its name ends in .bz2
+     * @param directory the directory to write into, created if it does not exist
+     * @return the number of pages written
+     * @throws IOException if the dump could not be read or parsed, or the files could not be written
+     */
+    public static int ingest(Path dump, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        int pages;
+        try (InputStream in = open(dump)) {
+            pages = writePages(in, directory);
+        }
+
+        MappedSegment titleIndex = MappedSegment.create(directory.resolve(DumpFiles.TITLE_INDEX),
+                DumpFiles.slotsFor(pages) * Integer.BYTES);
+        DumpFiles files = new DumpFiles(MappedSegment.read(directory.resolve(DumpFiles.RECORDS)),
+                DumpFiles.openFields(directory), titleIndex, null, null);
+        for (int page = 0; page < pages; page++) {
+            files.index(page);
+        }
+        titleIndex.force();
+        writeBacklinks(directory, files);
+        return pages;
+    }
+
+    /**
+     * @param dump an XML dump, compressed with bzip2 if its name ends in .bz2
+     * @return the XML of dump
+     * @throws IOException if dump could not be opened
+     */
+    private static InputStream open(Path dump) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(dump), 1 << 16);
+        if (dump.getFileName().toString().endsWith(".bz2")) {
+            // dumps are often split into several bzip2 streams one after the other
+            return new BZip2CompressorInputStream(in, true);
+        }
+        return in;
+    }
+
+    /**
+     * Stream the pages out of in, appending each one to the record file and the segment of each field.
+     *
+     * @param in the XML of a dump
+     * @param directory the directory to write into
+     * @return the number of pages written
+     * @throws IOException if in could not be read or parsed, or a file could not be written
+     */
+    private static int writePages(InputStream in, Path directory) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        // a whole dump escapes far more characters than the JDK allows by default
+        setIfSupported(factory, "jdk.xml.totalEntitySizeLimit", "0");
+        setIfSupported(factory, "jdk.xml.maxGeneralEntitySizeLimit", "0");
+
+        SegmentWriter[] segments = new SegmentWriter[DumpFiles.FIELDS];
+        try (DataOutputStream records = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(directory.resolve(DumpFiles.RECORDS)), 1 << 16))) {
+            for (DumpFiles.Field field : DumpFiles.Field.values()) {
+                segments[field.ordinal()] = new SegmentWriter(directory.resolve(field.file()));
+            }
+
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            int pages = 0;
+            String title = null;
+            String text = "";
+            String editor = "";
+            boolean redirect = false;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (xml.getLocalName()) {
+                        case "page":
+                            title = null;
+                            text = "";
+                            editor = "";
+                            redirect = false;
+                            break;
+                        case "title":
+                            title = xml.getElementText();
+                            break;
+                        case "redirect":
+                            redirect = true;
+                            break;
+                        case "username":
+                        case "ip":
+                            editor = xml.getElementText();
+                            break;
+                        case "text":
+                            text = xml.getElementText();
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("page")
+                        && title != null) {
+                    writePage(records, segments, title, text, editor, redirect);
+                    pages++;
+                }
+            }
+            xml.close();
+            return pages;
+        } catch (XMLStreamException e) {
+            throw new IOException("malformed dump", e);
+        } finally {
+            for (SegmentWriter segment : segments) {
+                if (segment != null) {
+                    segment.close();
+                }
+            }
+        }
+    }
+
+    private static void setIfSupported(XMLInputFactory factory, String property, String value) {
+        try {
+            factory.setProperty(property, value);
+        } catch (IllegalArgumentException e) {
+            // another StAX implementation, with limits of its own
+        }
+    }
+
+    /**
+     * Append one page to the segment of each field, and its record to records.
+     */
+    private static void writePage(DataOutputStream records, SegmentWriter[] segments, String title, String text,
+                                  String editor, boolean redirect) throws IOException {
+        Set<String> links = new LinkedHashSet<>();
+        Set<String> categories = new LinkedHashSet<>();
+        parseLinks(text, links, categories);
+
+        String[] values = new String[DumpFiles.FIELDS];
+        values[DumpFiles.Field.TITLE.ordinal()] = title;
+        values[DumpFiles.Field.TEXT.ordinal()] = text;
+        values[DumpFiles.Field.LINKS.ordinal()] = String.join("\n", links);
+        values[DumpFiles.Field.CATEGORIES.ordinal()] = String.join("\n", categories);
+        values[DumpFiles.Field.EDITOR.ordinal()] = editor;
+
+        int[] lengths = new int[DumpFiles.FIELDS];
+        for (int i = 0; i < DumpFiles.FIELDS; i++) {
+            byte[] bytes = values[i].getBytes(StandardCharsets.UTF_8);
+            records.writeLong(segments[i].append(bytes));
+            lengths[i] = bytes.length;
+        }
+        for (int length : lengths) {
+            records.writeInt(length);
+        }
+        records.writeInt(redirect ? DumpFiles.REDIRECT : 0);
+    }
+
+    /**
+     * Collect the targets of the [[...]] in text: links to pages into links, and categories the page
+     * is in into categories, each normalized as Wikipedia writes titles. A link inside the caption of
+     * another, as in [[File:A.jpg|thumb|[[B]]]], is found as well.
+     *
+     * @param text the wikitext of a page
+     * @param links the titles linked to, in order of first appearance
+     * @param categories the titles of the categories, in order of first appearance
+     */
+    private static void parseLinks(String text, Set<String> links, Set<String> categories) {
+        int start = text.indexOf("[[");
+        while (start >= 0) {
+            int from = start + 2;
+            int end = from;
+            while (end < text.length() && "|]\n[{<".indexOf(text.charAt(end)) < 0) {
+                end++;
+            }
+            if (end < text.length() && (text.charAt(end) == '|' || text.startsWith("]]", end))) {
+                addTarget(text.substring(from, end), links, categories);
+            }
+            start = text.indexOf("[[", from);
+        }
+    }
+
+    /**
+     * @param target the target of a [[...]], before any '|'
+     * @param links the titles linked to
+     * @param categories the titles of the categories
+     */
+    private static void addTarget(String target, Set<String> links, Set<String> categories) {
+        int section = target.indexOf('#');
+        if (section >= 0) {
+            target = target.substring(0, section);
+        }
+        // language prefixes are written in lower case, which normalizing would hide
+        if (INTERLANGUAGE.matcher(target.trim()).matches()) {
+            return;
+        }
+        target = CacheKey.normalizeTitle(target);
+        if (target.isEmpty()) {
+            return;
+        }
+
+        if (target.startsWith(":")) {
+            // [[:Category:X]] links to a category page rather than putting the page in it
+            String linked = CacheKey.normalizeTitle(target.substring(1));
+            if (!linked.isEmpty()) {
+                links.add(linked);
+            }
+            return;
+        }
+
+        String lower = target.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("category:")) {
+            String name = CacheKey.normalizeTitle(target.substring(CATEGORY.length()));
+            if (!name.isEmpty()) {
+                categories.add(CATEGORY + name);
+            }
+        } else if (!lower.startsWith("file:") && !lower.startsWith("image:") && !lower.startsWith("media:")) {
+            links.add(target);
+        }
+    }
+
+    /**
+     * Write the pages that link to each page, in two passes over the links of every page: the first
+     * counts the links to each page and so places the backlinks of each, the second fills them in.
+     *
+     * @param directory the directory to write into
+     * @param files the pages written so far, with their title index
+     * @throws IOException if a file could not be written
+     */
+    private static void writeBacklinks(Path directory, DumpFiles files) throws IOException {
+        int pages = files.pages();
+        MappedSegment index = MappedSegment.create(directory.resolve(DumpFiles.BACKLINK_INDEX),
+                (pages + 1L) * Long.BYTES);
+
+        // count the links to each page into the slot after it, so that summing the counts
+        // leaves the first backlink of each page in its own slot
+        for (int page = 0; page < pages; page++) {
+            for (int target : linkedPages(files, page)) {
+                long slot = (target + 1L) * Long.BYTES;
+                index.putLong(slot, index.getLong(slot) + 1);
+            }
+        }
+        for (int page = 1; page <= pages; page++) {
+            long slot = (long) page * Long.BYTES;
+            index.putLong(slot, index.getLong(slot) + index.getLong(slot - Long.BYTES));
+        }
+
+        MappedSegment backlinks = MappedSegment.create(directory.resolve(DumpFiles.BACKLINKS),
+                index.getLong((long) pages * Long.BYTES) * Integer.BYTES);
+        // each slot moves from the first backlink of its page to the end of them while filling in,
+        // which is the first backlink of the next page, so shifting the slots back restores them
+        for (int page = 0; page < pages; page++) {
+            for (int target : linkedPages(files, page)) {
+                long slot = (long) target * Long.BYTES;
+                long next = index.getLong(slot);
+                backlinks.putInt(next * Integer.BYTES, page);
+                index.putLong(slot, next + 1);
+            }
+        }
+        for (int page = pages; page > 0; page--) {
+            index.putLong((long) page * Long.BYTES, index.getLong((long) (page - 1) * Long.BYTES));
+        }
+        index.putLong(0, 0);
+
+        index.force();
+        backlinks.force();
+    }
+
+    /**
+     * @param files the pages, with their title index
+     * @param page the number of a page
+     * @return the numbers of the other pages that page links to, which for a redirect is its target
+     */
+    private static int[] linkedPages(DumpFiles files, int page) {
+        return files.list(page, DumpFiles.Field.LINKS).stream()
+                .mapToInt(files::find)
+                .filter(target -> target >= 0 && target != page)
+                .distinct()
+                .toArray();
+    }
+
+    /**
+     * Appends byte strings to a file, keeping track of where each one starts.
+     */
+    private static final class SegmentWriter implements Closeable {
+        private final OutputStream out;
+        private long size;
+
+        SegmentWriter(Path file) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        }
+
+        /**
+         * @param bytes the bytes to append
+         * @return the offset of the first of them in the file
+         */
+        long append(byte[] bytes) throws IOException {
+            long offset = size;
+            out.write(bytes);
+            size += bytes.length;
+            return offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package cpen221.mp3.wikimediator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A wiki read from a JSON file instead of the network, for tests and benchmarks that must be repeatable.
+ * Every call, and every lookup of many titles at once, waits for a configurable latency and fails with a
+ * configurable probability, as a request to a real wiki might, so the rest of the mediator can be measured
+ * under controlled upstream conditions. Fixture backends are created with a FixtureBackend.Builder.
+ *
+ * The file holds an object with a "pages" object, mapping each title to an object with optional
+ * "text" (a string), "links" and "categories" (arrays of titles) and "editors" (an array of user names,
+ * most recent first). It may also hold a "searches" object mapping a query to the titles it returns, best
+ * first. The pages that link to a page, the members of a category and the contributions of a user are
+ * worked out from the pages. A query that is not in "searches" returns the pages whose title contains it,
+ * then those whose text does, ignoring case, in the order of the file.
+ */
+public final class FixtureBackend implements WikiBackend {
+
+    /**
+     * The exception an injected failure throws, so that tests can tell it apart from a real one.
+     */
+    public static final class InjectedFailure extends UncheckedIOException {
+        private static final long serialVersionUID = 1L;
+
+        InjectedFailure(String call) {
+            super(new IOException("injected failure of " + call));
+        }
+    }
+
+    private static final class Page {
+        private final String text;
+        private final List<String> links;
+        private final List<String> categories;
+        private final List<String> editors;
+
+        Page(String text, List<String> links, List<String> categories, List<String> editors) {
+            this.text = text;
+            this.links = links;
+            this.categories = categories;
+            this.editors = editors;
+        }
+    }
+
+    private final Map<String, Page> pages;
+    private final Map<String, List<String>> searches;
+    private final Map<String, List<String>> backlinks;
+    private final Map<String, List<String>> members;
+    private final Map<String, List<String>> contribs;
+    private final long latency;
+    private final long jitter;
+    private final double failureRate;
+    private final Random random;
+    private final AtomicLong calls = new AtomicLong();
+
+    //  Representation Invariant:
+    //      - pages, searches, backlinks, members and contribs are unmodifiable, and so are the lists in them
+    //      - backlinks, members and contribs are derived from pages as the class comment describes
+    //      - latency >= 0, jitter >= 0 and 0 <= failureRate <= 1
+    //
+    //  Abstraction Function:
+    //      Represents a wiki holding pages, which answers each call after latency plus up to jitter milliseconds
+    //      and fails a fraction failureRate of them, drawn from random. calls counts the calls answered or failed.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - every field is final, and the maps and lists are unmodifiable after construction
+    //      - random is a thread safe type Random, and calls is a thread safe type AtomicLong
+
+    /**
+     * Builds a FixtureBackend from a file, with no latency and no failures unless set otherwise.
+     */
+    public static final class Builder {
+        private final Path file;
+        private long latency;
+        private long jitter;
+        private double failureRate;
+        private long seed = 221;
+
+        /**
+         * @param file the JSON file holding the pages of the wiki
+         */
+        public Builder(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * @param latency the number of milliseconds every call waits before answering, at least 0
+         * @return this builder
+         */
+        public Builder withLatency(long latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param jitter the greatest number of milliseconds added at random to the latency of a call, at least 0
+         * @return this builder
+         */
+        public Builder withJitter(long jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param failureRate the probability, from 0 to 1, that a call throws InjectedFailure
+         *                    after waiting for its latency
+         * @return this builder
+         */
+        public Builder withFailureRate(double failureRate) {
+            this.failureRate = failureRate;
+            return this;
+        }
+
+        /**
+         * @param seed the seed of the jitter and failures, so that a run can be repeated
+         * @return this builder
+         */
+        public Builder withSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @return a backend with the pages of the file and the options of this builder
+         * @throws IOException if the file could not be read
+         */
+        public FixtureBackend build() throws IOException {
+            return new FixtureBackend(this);
+        }
+    }
+
+    private FixtureBackend(Builder builder) throws IOException {
+        JsonObject fixture;
+        try (Reader in = Files.newBufferedReader(builder.file, StandardCharsets.UTF_8)) {
+            fixture = new Gson().fromJson(in, JsonObject.class);
+        }
+
+        Map<String, Page> pages = new LinkedHashMap<>();
+        Map<String, List<String>> backlinks = new HashMap<>();
+        Map<String, List<String>> members = new HashMap<>();
+        Map<String, List<String>> contribs = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : fixture.getAsJsonObject("pages").entrySet()) {
+            String title = entry.getKey();
+            JsonObject page = entry.getValue().getAsJsonObject();
+            String text = page.has("text") ? page.get("text").getAsString() : "";
+            Page parsed = new Page(text, strings(page, "links"), strings(page, "categories"), strings(page, "editors"));
+            pages.put(title, parsed);
+
+            for (String linked : parsed.links) {
+                backlinks.computeIfAbsent(linked, t -> new ArrayList<>()).add(title);
+            }
+            for (String category : parsed.categories) {
+                members.computeIfAbsent(category, c -> new ArrayList<>()).add(title);
+            }
+            for (String editor : parsed.editors) {
+                contribs.computeIfAbsent(editor, u -> new ArrayList<>()).add(title);
+            }
+        }
+
+        Map<String, List<String>> searches = new HashMap<>();
+        if (fixture.has("searches")) {
+            for (Map.Entry<String, JsonElement> entry : fixture.getAsJsonObject("searches").entrySet()) {
+                searches.put(entry.getKey(), strings(entry.getValue().getAsJsonArray()));
+            }
+        }
+
+        this.pages = Collections.unmodifiableMap(pages);
+        this.searches = Collections.unmodifiableMap(searches);
+        this.backlinks = unmodifiable(backlinks);
+        this.members = unmodifiable(members);
+        this.contribs = unmodifiable(contribs);
+        this.latency = builder.latency;
+        this.jitter = builder.jitter;
+        this.failureRate = builder.failureRate;
+        this.random = new Random(builder.seed);
+    }
+
+    private static List<String> strings(JsonObject page, String field) {
+        return page.has(field) ? strings(page.getAsJsonArray(field)) : Collections.emptyList();
+    }
+
+    private static List<String> strings(JsonArray array) {
+        List<String> strings = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            strings.add(element.getAsString());
+        }
+        return Collections.unmodifiableList(strings);
+    }
+
+    private static Map<String, List<String>> unmodifiable(Map<String, List<String>> lists) {
+        Map<String, List<String>> copy = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : lists.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return the number of calls this backend has answered or failed, counting a lookup of many titles as one
+     */
+    public long calls() {
+        return calls.get();
+    }
+
+    /**
+     * Wait for the latency of a call, then fail it or answer it.
+     *
+     * @param call the name of the call, for the message of an injected failure
+     * @param answer computes the answer of the call
+     * @return the answer
+     * @throws InjectedFailure if the call was chosen to fail
+     */
+    private <V> V call(String call, Supplier<V> answer) {
+        calls.incrementAndGet();
+        long wait = latency + (jitter > 0 ? (long) (random.nextDouble() * (jitter + 1)) : 0);
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("interrupted", e));
+            }
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new InjectedFailure(call);
+        }
+        return answer.get();
+    }
+
+    private Page page(String title) {
+        return pages.get(title);
+    }
+
+    @Override
+    public List<String> search(String query, int limit) {
+        return call("search", () -> {
+            List<String> results = searches.get(query);
+            if (results == null) {
+                String lower = query.toLowerCase(Locale.ROOT);
+                results = new ArrayList<>();
+                for (String title : pages.keySet()) {
+                    if (title.toLowerCase(Locale.ROOT).contains(lower)) {
+                        results.add(title);
+                    }
+                }
+                for (Map.Entry<String, Page> page : pages.entrySet()) {
+                    if (!results.contains(page.getKey()) && page.getValue().text.toLowerCase(Locale.ROOT).contains(lower)) {
+                        results.add(page.getKey());
+                    }
+                }
+            }
+            int size = limit < 0 ? results.size() : Math.min(limit, results.size());
+            return new ArrayList<>(results.subList(0, size));
+        });
+    }
+
+    @Override
+    public String getPageText(String title) {
+        return call("getPageText", () -> textOf(title));
+    }
+
+    @Override
+    public List<String> getLinksOnPage(String title) {
+        return call("getLinksOnPage", () -> linksOf(title));
+    }
+
+    @Override
+    public List<String> whatLinksHere(String title) {
+        return call("whatLinksHere", () -> new ArrayList<>(backlinks.getOrDefault(title, Collections.emptyList())));
+    }
+
+    @Override
+    public List<String> getCategoriesOnPage(String title) {
+        return call("getCategoriesOnPage", () -> categoriesOf(title));
+    }
+
+    @Override
+    public List<String> getCategoryMembers(String category) {
+        return call("getCategoryMembers", () -> new ArrayList<>(members.getOrDefault(category, Collections.emptyList())));
+    }
+
+    @Override
+    public List<String> getContribs(String user) {
+        return call("getContribs", () -> new ArrayList<>(contribs.getOrDefault(user, Collections.emptyList())));
+    }
+
+    @Override
+    public String getLastEditor(String title) {
+        return call("getLastEditor", () -> editorOf(title));
+    }
+
+    @Override
+    public Map<String, String> pageText(List<String> titles) {
+        return call("pageText", () -> {
+            Map<String, String> texts = new HashMap<>();
+            for (String title : titles) {
+                texts.put(title, textOf(title));
+            }
+            return texts;
+        });
+    }
+
+    @Override
+    public Map<String, List<String>> links(List<String> titles) {
+        return call("links", () -> {
+            Map<String, List<String>> links = new HashMap<>();
+            for (String title : titles) {
+                links.put(title, linksOf(title));
+            }
+            return links;
+        });
+    }
+
+    @Override
+    public Map<String, List<String>> backlinks(List<String> titles) {
+        return call("backlinks", () -> {
+            Map<String, List<String>> linking = new HashMap<>();
+            for (String title : titles) {
+                linking.put(title, new ArrayList<>(backlinks.getOrDefault(title, Collections.emptyList())));
+            }
+            return linking;
+        });
+    }
+
+    @Override
+    public Map<String, List<String>> categories(List<String> titles) {
+        return call("categories", () -> {
+            Map<String, List<String>> categories = new HashMap<>();
+            for (String title : titles) {
+                categories.put(title, categoriesOf(title));
+            }
+            return categories;
+        });
+    }
+
+    @Override
+    public Map<String, String> lastEditors(List<String> titles) {
+        return call("lastEditors", () -> {
+            Map<String, String> editors = new HashMap<>();
+            for (String title : titles) {
+                String editor = editorOf(title);
+                if (editor != null) {
+                    editors.put(title, editor);
+                }
+            }
+            return editors;
+        });
+    }
+
+    private String textOf(String title) {
+        Page page = page(title);
+        return page == null ? "" : page.text;
+    }
+
+    private List<String> linksOf(String title) {
+        Page page = page(title);
+        return page == null ? new ArrayList<>() : new ArrayList<>(page.links);
+    }
+
+    private List<String> categoriesOf(String title) {
+        Page page = page(title);
+        return page == null ? new ArrayList<>() : new ArrayList<>(page.categories);
+    }
+
+    private String editorOf(String title) {
+        Page page = page(title);
+        return page == null || page.editors.isEmpty() ? null : page.editors.get(0);
+    }
+}
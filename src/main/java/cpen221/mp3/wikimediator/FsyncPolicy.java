@@ -0,0 +1,15 @@
+package cpen221.mp3.wikimediator;
+
+/**
+ * When the log of request statistics forces what it has written to the disk, trading the
+ * requests that a crash of the machine may lose against the time spent waiting on the disk.
+ * Requests are logged in the background either way, so no policy makes a request wait.
+ */
+public enum FsyncPolicy {
+    /* force every group of requests written, so a crash loses none that reached the log */
+    ALWAYS,
+    /* force at most once a second, so a crash loses at most about a second of requests */
+    INTERVAL,
+    /* never force, leaving it to the operating system to write the requests to the disk in its own time */
+    NEVER
+}
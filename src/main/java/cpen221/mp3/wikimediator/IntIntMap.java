@@ -0,0 +1,102 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.Arrays;
+
+/**
+ * A map from non-negative ints to ints, kept in one open-addressed array of keys and one of
+ * values, so that recording the parent or depth of a page does not allocate an object.
+ */
+class IntIntMap {
+
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    //  Representation Invariant:
+    //      - keys.length == values.length, and is a power of two greater than 2 * size
+    //      - exactly size entries of keys are not FREE, and no key appears twice
+    //      - every key is found by probing linearly from its hash before reaching a FREE entry
+    //
+    //  Abstraction Function:
+    //      Represents the map from keys[i] to values[i] for every i with keys[i] != FREE.
+    //
+    // Thread safety argument:
+    //      This class is not thread-safe. Each search keeps its maps local to the calling thread.
+
+    /**
+     * Create an empty map.
+     *
+     * @param expectedSize the number of entries the map can hold before it grows
+     */
+    IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * @param key a non-negative int
+     * @param value the value to relate key with, replacing any earlier one
+     */
+    void put(int key, int value) {
+        if (2 * (size + 1) >= keys.length) {
+            grow();
+        }
+        int slot = slot(key);
+        if (keys[slot] == FREE) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * @param key a non-negative int
+     * @param absent the value to return if key is not in the map
+     * @return the value related to key, or absent if there is none
+     */
+    int get(int key, int absent) {
+        int slot = slot(key);
+        return keys[slot] == FREE ? absent : values[slot];
+    }
+
+    /**
+     * @param key a non-negative int
+     * @return true if the map relates key with a value
+     */
+    boolean containsKey(int key) {
+        return keys[slot(key)] != FREE;
+    }
+
+    /**
+     * @param key a non-negative int
+     * @return the slot holding key, or the free slot where it would be put
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9e3779b9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, FREE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, used for the frontiers of searches so that visiting a page
+ * does not allocate an object.
+ */
+class IntList {
+
+    private int[] elements;
+    private int size;
+
+    //  Representation Invariant:
+    //      - 0 <= size <= elements.length
+    //
+    //  Abstraction Function:
+    //      Represents the list elements[0..size-1].
+    //
+    // Thread safety argument:
+    //      This class is not thread-safe. Each search keeps its lists local to the calling thread.
+
+    /**
+     * Create an empty list.
+     *
+     * @param capacity the number of elements the list can hold before it grows, at least 1
+     */
+    IntList(int capacity) {
+        elements = new int[capacity];
+    }
+
+    /**
+     * @param element the int to append
+     */
+    void add(int element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+    }
+
+    /**
+     * @param index the position of an element, between 0 and size() - 1
+     * @return the element at index
+     */
+    int get(int index) {
+        return elements[index];
+    }
+
+    /**
+     * @return the number of elements in the list
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the list has no elements
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the elements of the list, in order
+     */
+    int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
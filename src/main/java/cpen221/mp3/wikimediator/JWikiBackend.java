@@ -0,0 +1,110 @@
+package cpen221.mp3.wikimediator;
+
+import fastily.jwiki.core.Wiki;
+import fastily.jwiki.dwrap.Contrib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A wiki reached over the network through JWiki. Lookups of many titles at once are sent as one
+ * request through MultiTitleQuery, since JWiki only looks them up one title at a time.
+ */
+public final class JWikiBackend implements WikiBackend {
+
+    private final Wiki wiki;
+    private final MultiTitleQuery multiTitleQuery;
+
+    //  Representation Invariant:
+    //      - wiki and multiTitleQuery are linked to the same domain
+    //
+    //  Abstraction Function:
+    //      Represents the wiki at the domain of wiki.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - wiki and multiTitleQuery are final, and multiTitleQuery is a thread safe type MultiTitleQuery
+    //      - wiki is only used for queries, which do not change its state
+
+    /**
+     * Create a backend for the wiki at domain.
+     *
+     * @param domain the domain of the wiki, such as en.wikipedia.org
+     */
+    public JWikiBackend(String domain) {
+        wiki = new Wiki(domain);
+        multiTitleQuery = new MultiTitleQuery(domain);
+    }
+
+    @Override
+    public List<String> search(String query, int limit) {
+        return wiki.search(query, limit);
+    }
+
+    @Override
+    public String getPageText(String title) {
+        return wiki.getPageText(title);
+    }
+
+    @Override
+    public List<String> getLinksOnPage(String title) {
+        return wiki.getLinksOnPage(title);
+    }
+
+    @Override
+    public List<String> whatLinksHere(String title) {
+        // jwiki leaves out redirects, which getLinksOnPage follows to their targets
+        return multiTitleQuery.backlinks(Collections.singletonList(title)).get(title);
+    }
+
+    @Override
+    public List<String> getCategoriesOnPage(String title) {
+        return wiki.getCategoriesOnPage(title);
+    }
+
+    @Override
+    public List<String> getCategoryMembers(String category) {
+        return wiki.getCategoryMembers(category);
+    }
+
+    @Override
+    public List<String> getContribs(String user) {
+        List<String> titles = new ArrayList<>();
+        for (Contrib contrib : wiki.getContribs(user, -1, false)) {
+            titles.add(contrib.title);
+        }
+        return titles;
+    }
+
+    @Override
+    public String getLastEditor(String title) {
+        return wiki.getLastEditor(title);
+    }
+
+    @Override
+    public Map<String, String> pageText(List<String> titles) {
+        return multiTitleQuery.pageText(titles);
+    }
+
+    @Override
+    public Map<String, List<String>> links(List<String> titles) {
+        return multiTitleQuery.links(titles);
+    }
+
+    @Override
+    public Map<String, List<String>> backlinks(List<String> titles) {
+        return multiTitleQuery.backlinks(titles);
+    }
+
+    @Override
+    public Map<String, List<String>> categories(List<String> titles) {
+        return multiTitleQuery.categories(titles);
+    }
+
+    @Override
+    public Map<String, String> lastEditors(List<String> titles) {
+        return multiTitleQuery.lastEditors(titles);
+    }
+}
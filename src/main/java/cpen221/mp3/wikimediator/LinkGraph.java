@@ -0,0 +1,500 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * The links between Wikipedia pages fetched so far, shared by every traversal of a WikiMediator.
+ * Each title is interned to a small int, and the links of a page are kept as the sorted ids of the
+ * pages it links to, stored as variable-length deltas, so a link usually takes a byte or two
+ * instead of a String reference. The graph knows both the links on a page and the backlinks to it,
+ * the pages that link to it, each fetched separately and at most once per time to live;
+ * concurrent requests for the same page wait for the one fetch in flight. Fetches are
+ * asynchronous, so a traversal can ask for a whole level of pages at once and let the
+ * fetcher gather them into batches. No thread waits for them either: a traversal expands
+ * each level in a stage that runs once the links of the level before it have arrived.
+ *
+ * The graph holds at most about capacity pages. Its pages belong to a Generation, and once the
+ * current generation has capacity pages the next traversal starts a new one, which keeps only the
+ * most recently fetched links that are within the time to live, up to half of capacity pages; the
+ * rest are evicted. Ids are recycled: each generation numbers its pages from 0, so the same id
+ * names different pages in different generations. A traversal therefore takes one generation when
+ * it starts and uses its ids throughout, and a generation is dropped once no traversal uses it.
+ */
+class LinkGraph {
+
+    /* the default number of pages a graph holds before it evicts the least recently fetched */
+    static final int DCAPACITY = 1 << 16;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Function<String, CompletableFuture<? extends List<String>>> fetchLinks;
+    private final Function<String, CompletableFuture<? extends List<String>>> fetchBacklinks;
+    private final long timeToLive;
+    private final int capacity;
+    private volatile Generation current;
+
+    //  Representation Invariant:
+    //      - current is not null
+    //      - capacity >= 2
+    //
+    //  Abstraction Function:
+    //      Represents the links between pages known to current, the generation new traversals use. Traversals
+    //      that started earlier may still use an earlier generation until they finish.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - fetchLinks, fetchBacklinks, timeToLive and capacity are final
+    //      - current is volatile and only replaced while holding the lock on this
+    //      - Generation is thread safe, as argued below
+
+    /**
+     * Create an empty graph holding up to DCAPACITY pages.
+     *
+     * @param fetchLinks gives the future titles of the pages linked from a page, and must be safe to call concurrently
+     * @param fetchBacklinks gives the future titles of the pages that link to a page, and must be safe to call
+     *                       concurrently
+     * @param timeToLive the duration in seconds for which the fetched links of a page are used before fetching them again
+     */
+    LinkGraph(Function<String, CompletableFuture<? extends List<String>>> fetchLinks,
+              Function<String, CompletableFuture<? extends List<String>>> fetchBacklinks, int timeToLive) {
+        this(fetchLinks, fetchBacklinks, timeToLive, DCAPACITY);
+    }
+
+    /**
+     * Create an empty graph.
+     *
+     * @param fetchLinks gives the future titles of the pages linked from a page, and must be safe to call concurrently
+     * @param fetchBacklinks gives the future titles of the pages that link to a page, and must be safe to call
+     *                       concurrently
+     * @param timeToLive the duration in seconds for which the fetched links of a page are used before fetching them again
+     * @param capacity the number of pages after which new traversals start a new generation, at least 2
+     */
+    LinkGraph(Function<String, CompletableFuture<? extends List<String>>> fetchLinks,
+              Function<String, CompletableFuture<? extends List<String>>> fetchBacklinks, int timeToLive,
+              int capacity) {
+        this.fetchLinks = fetchLinks;
+        this.fetchBacklinks = fetchBacklinks;
+        this.timeToLive = timeToLive * 1000L;
+        this.capacity = capacity;
+        this.current = new Generation();
+    }
+
+    /**
+     * Take the generation a traversal should use for all of its ids, starting a new one first if the
+     * current one is full.
+     *
+     * @return the current generation of the graph
+     */
+    Generation generation() {
+        Generation generation = current;
+        if (!generation.full()) {
+            return generation;
+        }
+
+        synchronized (this) {
+            if (current == generation) {
+                current = generation.successor();
+            }
+            return current;
+        }
+    }
+
+    /**
+     * The links of every page in one direction, and the fetches of them in flight.
+     */
+    private static final class Adjacency {
+        private final Function<String, CompletableFuture<? extends List<String>>> fetcher;
+        private final Map<Integer, CompletableFuture<int[]>> fetching = new ConcurrentHashMap<>();
+        private byte[][] links = new byte[INITIAL_CAPACITY][];
+        private int[] degrees = new int[INITIAL_CAPACITY];
+        private long[] fetchedAt = new long[INITIAL_CAPACITY];
+
+        Adjacency(Function<String, CompletableFuture<? extends List<String>>> fetcher) {
+            this.fetcher = fetcher;
+        }
+
+        void grow(int capacity) {
+            links = Arrays.copyOf(links, capacity);
+            degrees = Arrays.copyOf(degrees, capacity);
+            fetchedAt = Arrays.copyOf(fetchedAt, capacity);
+        }
+    }
+
+    /**
+     * The pages of the graph numbered by one set of ids, and the links between them. A generation keeps
+     * growing while traversals that took it add pages to it, but new traversals stop taking it once it
+     * holds capacity pages.
+     */
+    final class Generation {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Adjacency outgoing = new Adjacency(fetchLinks);
+        private final Adjacency incoming = new Adjacency(fetchBacklinks);
+        private String[] titles = new String[INITIAL_CAPACITY];
+        private int size;
+
+        //  Representation Invariant:
+        //      - titles and the arrays of outgoing and incoming have the same length, which is at least size
+        //      - for every 0 <= id < size, ids.get(titles[id]) == id, and ids contains no other entries
+        //      - in each of outgoing and incoming, links[id] is null if that direction of id has not been fetched,
+        //        otherwise it holds degrees[id] varints whose running sums are strictly increasing ids less than
+        //        size
+        //      - every future in the fetching map of outgoing and incoming is incomplete
+        //
+        //  Abstraction Function:
+        //      Represents the directed graph of links between the pages titles[0..size-1]. outgoing holds the
+        //      pages each page links to, and incoming the pages that link to it; either is known for a page if
+        //      its links[id] is not null and was fetched within timeToLive milliseconds of its fetchedAt[id]. The
+        //      fetcher of each gives the titles for a page, and its fetching map relates each page being fetched
+        //      with the eventual result of that fetch.
+        //
+        // Thread safety argument:
+        //      This class is Thread-safe because:
+        //      - lock, ids, outgoing and incoming are final, as are the fetcher and fetching map of each
+        //      - ids, titles, size and the arrays of outgoing and incoming are only read while holding the read
+        //        lock of lock and only written while holding its write lock
+        //      - each fetching map is a thread safe type ConcurrentHashMap, and only one thread can claim a page
+        //        in it with putIfAbsent, so a fetcher is never called for the same page twice at once
+
+        private Generation() {
+        }
+
+        /**
+         * @param title the title of a page
+         * @return the id of the page with title, assigning it the next free id if it has none yet
+         */
+        int id(String title) {
+            lock.readLock().lock();
+            try {
+                Integer id = ids.get(title);
+                if (id != null) {
+                    return id;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            lock.writeLock().lock();
+            try {
+                return intern(title);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * @param id the id of a page, as returned by id
+         * @return the title of the page with that id
+         */
+        String title(int id) {
+            lock.readLock().lock();
+            try {
+                return titles[id];
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @param linked ids of pages
+         * @return the titles of the pages with the ids in linked, in the same order
+         */
+        List<String> titles(int[] linked) {
+            List<String> result = new ArrayList<>(linked.length);
+            lock.readLock().lock();
+            try {
+                for (int id : linked) {
+                    result.add(titles[id]);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return result;
+        }
+
+        /**
+         * Find the ids of the pages linked from the page with id, fetching them if they are not
+         * known or are older than the time to live. A page is fetched by one caller at a time;
+         * others asking for it in the meantime receive the result of that fetch.
+         *
+         * @param id the id of a page, as returned by id
+         * @return the future ids of the pages that id links to, in increasing order, which may be shared and
+         *         must not be modified
+         */
+        CompletableFuture<int[]> linksAsync(int id) {
+            return fetch(outgoing, id);
+        }
+
+        /**
+         * Find the ids of the pages that link to the page with id, as linksAsync does for the links on it.
+         *
+         * @param id the id of a page, as returned by id
+         * @return the future ids of the pages that link to id, which may be shared and must not be modified
+         */
+        CompletableFuture<int[]> backlinksAsync(int id) {
+            return fetch(incoming, id);
+        }
+
+        /**
+         * @return true if new traversals should no longer take this generation
+         */
+        private boolean full() {
+            lock.readLock().lock();
+            try {
+                return size >= capacity;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Start a generation holding the most recently fetched links of this one that are still within the
+         * time to live, as many as fit in half of capacity pages, so that it has room to grow.
+         *
+         * @return the new generation
+         */
+        private Generation successor() {
+            Generation next = new Generation();
+            lock.readLock().lock();
+            next.lock.writeLock().lock();
+            try {
+                long currentTime = System.currentTimeMillis();
+                List<Integer> fresh = new ArrayList<>();
+                for (int id = 0; id < size; id++) {
+                    if (outgoing.links[id] != null && currentTime <= outgoing.fetchedAt[id] + timeToLive) {
+                        fresh.add(id << 1);
+                    }
+                    if (incoming.links[id] != null && currentTime <= incoming.fetchedAt[id] + timeToLive) {
+                        fresh.add(id << 1 | 1);
+                    }
+                }
+                fresh.sort((a, b) -> Long.compare(direction(b).fetchedAt[b >>> 1], direction(a).fetchedAt[a >>> 1]));
+
+                for (int entry : fresh) {
+                    Adjacency from = direction(entry);
+                    int id = entry >>> 1;
+                    int[] linked = decode(from.links[id], from.degrees[id]);
+                    int missing = next.ids.containsKey(titles[id]) ? 0 : 1;
+                    for (int page : linked) {
+                        if (!next.ids.containsKey(titles[page])) {
+                            missing++;
+                        }
+                    }
+                    if (next.size + missing > capacity / 2) {
+                        continue;
+                    }
+
+                    int[] renumbered = new int[linked.length];
+                    for (int i = 0; i < linked.length; i++) {
+                        renumbered[i] = next.intern(titles[linked[i]]);
+                    }
+                    Arrays.sort(renumbered);
+                    next.record(next.direction(entry), next.intern(titles[id]), renumbered, from.fetchedAt[id]);
+                }
+            } finally {
+                next.lock.writeLock().unlock();
+                lock.readLock().unlock();
+            }
+            return next;
+        }
+
+        /**
+         * @param entry an id shifted left by one, with the lowest bit set for backlinks
+         * @return the direction of links entry refers to in this generation
+         */
+        private Adjacency direction(int entry) {
+            return (entry & 1) == 0 ? outgoing : incoming;
+        }
+
+        /**
+         * @param adjacency the direction of links to find
+         * @param id the id of a page
+         * @return the future ids of the pages adjacent to id in that direction, fetching them if they are not known
+         */
+        private CompletableFuture<int[]> fetch(Adjacency adjacency, int id) {
+            int[] known = known(adjacency, id);
+            if (known != null) {
+                return CompletableFuture.completedFuture(known);
+            }
+
+            CompletableFuture<int[]> fetch = new CompletableFuture<>();
+            CompletableFuture<int[]> inFlight = adjacency.fetching.putIfAbsent(id, fetch);
+            if (inFlight != null) {
+                return inFlight;
+            }
+
+            try {
+                // another thread may have finished fetching id between the lookup above and claiming it
+                known = known(adjacency, id);
+                if (known != null) {
+                    adjacency.fetching.remove(id, fetch);
+                    fetch.complete(known);
+                    return fetch;
+                }
+
+                adjacency.fetcher.apply(title(id)).whenComplete((linkedTitles, error) -> {
+                    Throwable failure = error instanceof CompletionException ? error.getCause() : error;
+                    int[] linked = null;
+                    if (failure == null) {
+                        try {
+                            linked = store(adjacency, id, linkedTitles);
+                        } catch (RuntimeException | Error e) {
+                            failure = e;
+                        }
+                    }
+                    // release id before completing, since whatever waits on fetch may look id up again at once
+                    adjacency.fetching.remove(id, fetch);
+                    if (failure == null) {
+                        fetch.complete(linked);
+                    } else {
+                        fetch.completeExceptionally(failure);
+                    }
+                });
+            } catch (RuntimeException | Error e) {
+                adjacency.fetching.remove(id, fetch);
+                fetch.completeExceptionally(e);
+            }
+            return fetch;
+        }
+
+        /**
+         * @param adjacency the direction of links to find
+         * @param id the id of a page
+         * @return the ids of the pages adjacent to id, or null if they were never fetched or are out of date
+         */
+        private int[] known(Adjacency adjacency, int id) {
+            lock.readLock().lock();
+            try {
+                if (adjacency.links[id] == null || System.currentTimeMillis() > adjacency.fetchedAt[id] + timeToLive) {
+                    return null;
+                }
+                return decode(adjacency.links[id], adjacency.degrees[id]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Record that the pages adjacent to the page with id are those with linkedTitles, replacing its earlier
+         * ones.
+         *
+         * @param adjacency the direction of the links
+         * @param id the id of a page
+         * @param linkedTitles the titles of the pages adjacent to id, possibly with repeats
+         * @return the ids of the pages adjacent to id, in increasing order and without repeats
+         */
+        private int[] store(Adjacency adjacency, int id, List<String> linkedTitles) {
+            lock.writeLock().lock();
+            try {
+                int[] linked = new int[linkedTitles.size()];
+                for (int i = 0; i < linked.length; i++) {
+                    linked[i] = intern(linkedTitles.get(i));
+                }
+                Arrays.sort(linked);
+
+                int distinct = 0;
+                for (int i = 0; i < linked.length; i++) {
+                    if (distinct == 0 || linked[i] != linked[distinct - 1]) {
+                        linked[distinct++] = linked[i];
+                    }
+                }
+                linked = Arrays.copyOf(linked, distinct);
+
+                record(adjacency, id, linked, System.currentTimeMillis());
+                return linked;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Must be called while holding the write lock.
+         *
+         * @param adjacency the direction of the links
+         * @param id the id of a page
+         * @param linked the ids of the pages adjacent to id, in strictly increasing order
+         * @param fetchedAt the time in milliseconds at which they were fetched
+         */
+        private void record(Adjacency adjacency, int id, int[] linked, long fetchedAt) {
+            adjacency.links[id] = encode(linked);
+            adjacency.degrees[id] = linked.length;
+            adjacency.fetchedAt[id] = fetchedAt;
+        }
+
+        /**
+         * Must be called while holding the write lock.
+         *
+         * @param title the title of a page
+         * @return the id of the page with title, assigning it the next free id if it has none yet
+         */
+        private int intern(String title) {
+            Integer known = ids.get(title);
+            if (known != null) {
+                return known;
+            }
+
+            if (size == titles.length) {
+                int grown = titles.length * 2;
+                titles = Arrays.copyOf(titles, grown);
+                outgoing.grow(grown);
+                incoming.grow(grown);
+            }
+            titles[size] = title;
+            ids.put(title, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @param linked strictly increasing non-negative ids
+     * @return the differences between consecutive ids, starting from 0, as unsigned 7-bit varints
+     */
+    private static byte[] encode(int[] linked) {
+        byte[] buffer = new byte[linked.length * 5];
+        int position = 0;
+        int previous = 0;
+        for (int id : linked) {
+            int delta = id - previous;
+            previous = id;
+            while ((delta & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((delta & 0x7f) | 0x80);
+                delta >>>= 7;
+            }
+            buffer[position++] = (byte) delta;
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * @param encoded the output of encode
+     * @param count the number of ids encoded
+     * @return the ids that were encoded
+     */
+    private static int[] decode(byte[] encoded, int count) {
+        int[] linked = new int[count];
+        int position = 0;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = encoded[position++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            previous += delta;
+            linked[i] = previous;
+        }
+        return linked;
+    }
+}
@@ -0,0 +1,154 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped into memory in chunks of 1 GiB, so that files larger than one MappedByteBuffer
+ * can hold are read, and written if created for writing, at any long offset. Reading a mapped file
+ * leaves caching it to the operating system: pages that are not used are never read from disk, and
+ * pages that are used stay in memory for as long as there is room, without growing the heap.
+ * Every int and long must lie within one chunk, which holds for any value at an offset that is a
+ * multiple of its size.
+ */
+final class MappedSegment {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_BYTES = 1L << CHUNK_BITS;
+
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    //  Representation Invariant:
+    //      - chunks[i] maps the bytes of the file from i * CHUNK_BYTES, and holds CHUNK_BYTES bytes
+    //        unless it is the last chunk
+    //      - size is the sum of the capacities of chunks
+    //
+    //  Abstraction Function:
+    //      Represents the first size bytes of a file.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe for reading because:
+    //      - chunks and size are final, and chunks is never reassigned
+    //      - reads only use absolute offsets, or a duplicate of a chunk of their own, so they never change
+    //        the position of a chunk another thread is using
+    //      Writes are not synchronized: a segment is only written by the thread that created it.
+
+    private MappedSegment(MappedByteBuffer[] chunks, long size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Map all of file for reading.
+     *
+     * @param file the file to map
+     * @return the segment holding the bytes of file
+     * @throws IOException if file could not be mapped
+     */
+    static MappedSegment read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+        }
+    }
+
+    /**
+     * Create file, replacing it if it exists, with size zero bytes, and map it for reading and writing.
+     *
+     * @param file the file to create
+     * @param size the number of bytes in the file, at least 0
+     * @return the segment holding the bytes of file
+     * @throws IOException if file could not be created or mapped
+     */
+    static MappedSegment create(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (size > 0) {
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            return map(channel, FileChannel.MapMode.READ_WRITE, size);
+        }
+    }
+
+    private static MappedSegment map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + CHUNK_BYTES - 1) >>> CHUNK_BITS)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << CHUNK_BITS;
+            chunks[i] = channel.map(mode, start, Math.min(CHUNK_BYTES, size - start));
+        }
+        return new MappedSegment(chunks, size);
+    }
+
+    /**
+     * @return the number of bytes in the segment
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @param offset the offset of the int, a multiple of 4 less than size
+     * @return the int at offset
+     */
+    int getInt(long offset) {
+        return chunks[(int) (offset >>> CHUNK_BITS)].getInt((int) (offset & (CHUNK_BYTES - 1)));
+    }
+
+    /**
+     * @param offset the offset of the long, a multiple of 8 less than size
+     * @return the long at offset
+     */
+    long getLong(long offset) {
+        return chunks[(int) (offset >>> CHUNK_BITS)].getLong((int) (offset & (CHUNK_BYTES - 1)));
+    }
+
+    /**
+     * @param offset the offset of the int, a multiple of 4 less than size
+     * @param value the int to write at offset
+     */
+    void putInt(long offset, int value) {
+        chunks[(int) (offset >>> CHUNK_BITS)].putInt((int) (offset & (CHUNK_BYTES - 1)), value);
+    }
+
+    /**
+     * @param offset the offset of the long, a multiple of 8 less than size
+     * @param value the long to write at offset
+     */
+    void putLong(long offset, long value) {
+        chunks[(int) (offset >>> CHUNK_BITS)].putLong((int) (offset & (CHUNK_BYTES - 1)), value);
+    }
+
+    /**
+     * Copy bytes out of the segment, which may span several chunks.
+     *
+     * @param offset the offset of the first byte, at least 0
+     * @param length the number of bytes, such that offset + length <= size
+     * @return the bytes from offset
+     */
+    byte[] bytes(long offset, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long position = offset + copied;
+            ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)].duplicate();
+            chunk.position((int) (position & (CHUNK_BYTES - 1)));
+            int count = Math.min(length - copied, chunk.remaining());
+            chunk.get(bytes, copied, count);
+            copied += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the changes made to the segment back to its file.
+     */
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+}
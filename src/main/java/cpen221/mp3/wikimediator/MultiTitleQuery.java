@@ -0,0 +1,250 @@
+package cpen221.mp3.wikimediator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Queries the MediaWiki API of a wiki for up to 50 titles in one request, following continuations
+ * until every title is complete. JWiki only looks up links one title at a time, so this sends the
+ * same queries it would for a single title, for many titles at once. Results are keyed by the titles
+ * as they were asked for, even when the wiki normalizes them.
+ */
+class MultiTitleQuery {
+
+    private static final int TIMEOUT_MILLI = 30000;
+    private static final String USER_AGENT = "WikiMediator/0.1 (CPEN 221)";
+
+    private final URL endpoint;
+    private final Gson gson = new Gson();
+
+    //  Representation Invariant:
+    //      - endpoint is the api.php of a wiki over https
+    //
+    //  Abstraction Function:
+    //      Represents a client of the MediaWiki API at endpoint.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - endpoint and gson are final, and gson is a thread safe type Gson
+    //      - every request uses its own connection and keeps its results local
+
+    /**
+     * Create a client for the wiki at domain.
+     *
+     * @param domain the domain of the wiki, such as en.wikipedia.org
+     */
+    MultiTitleQuery(String domain) {
+        try {
+            endpoint = new URL("https://" + domain + "/w/api.php");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(domain, e);
+        }
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the titles of the pages it links to, in any namespace
+     */
+    Map<String, List<String>> links(List<String> titles) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("prop", "links");
+        params.put("pllimit", "max");
+        return titleLists(titles, params, "links");
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the titles of the pages that link to it, including redirects to it
+     */
+    Map<String, List<String>> backlinks(List<String> titles) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("prop", "linkshere");
+        params.put("lhlimit", "max");
+        return titleLists(titles, params, "linkshere");
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the titles of the categories the page is in
+     */
+    Map<String, List<String>> categories(List<String> titles) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("prop", "categories");
+        params.put("cllimit", "max");
+        return titleLists(titles, params, "categories");
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the wikitext of its latest revision, or the empty string if it does not exist
+     */
+    Map<String, String> pageText(List<String> titles) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("prop", "revisions");
+        params.put("rvprop", "content");
+        params.put("rvslots", "main");
+
+        Map<String, String> texts = new HashMap<>();
+        for (String title : titles) {
+            texts.put(title, "");
+        }
+        query(titles, params, (title, page) -> {
+            if (page.has("revisions")) {
+                JsonObject revision = page.getAsJsonArray("revisions").get(0).getAsJsonObject();
+                texts.put(title, revision.getAsJsonObject("slots").getAsJsonObject("main").get("content").getAsString());
+            }
+        });
+        return texts;
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the user who made its latest revision, leaving out pages that do not exist
+     */
+    Map<String, String> lastEditors(List<String> titles) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("prop", "revisions");
+        params.put("rvprop", "user");
+
+        Map<String, String> editors = new HashMap<>();
+        query(titles, params, (title, page) -> {
+            if (page.has("revisions")) {
+                JsonObject revision = page.getAsJsonArray("revisions").get(0).getAsJsonObject();
+                if (revision.has("user")) {
+                    editors.put(title, revision.get("user").getAsString());
+                }
+            }
+        });
+        return editors;
+    }
+
+    /**
+     * Collect a list of titles from the field of every page in the result.
+     *
+     * @param titles the titles to query
+     * @param params the parameters of the query besides the titles
+     * @param field the field of each page holding objects with a title
+     * @return a map from each title to the titles listed under field, empty if there are none
+     */
+    private Map<String, List<String>> titleLists(List<String> titles, Map<String, String> params, String field) {
+        Map<String, List<String>> lists = new HashMap<>();
+        for (String title : titles) {
+            lists.put(title, new ArrayList<>());
+        }
+        query(titles, params, (title, page) -> {
+            if (page.has(field)) {
+                for (JsonElement linked : page.getAsJsonArray(field)) {
+                    lists.get(title).add(linked.getAsJsonObject().get("title").getAsString());
+                }
+            }
+        });
+        return lists;
+    }
+
+    /**
+     * Run a query on titles, passing every page in every continuation of the result to consumer.
+     *
+     * @param titles the titles to query
+     * @param params the parameters of the query besides the titles
+     * @param consumer called with the title as asked for and the JSON object of each page in the result
+     * @throws UncheckedIOException if a request failed
+     */
+    private void query(List<String> titles, Map<String, String> params, BiConsumer<String, JsonObject> consumer) {
+        Map<String, String> request = new LinkedHashMap<>(params);
+        request.put("action", "query");
+        request.put("format", "json");
+        request.put("formatversion", "2");
+        request.put("titles", String.join("|", titles));
+
+        while (true) {
+            JsonObject result = post(request);
+            JsonObject query = result.getAsJsonObject("query");
+            if (query != null && query.has("pages")) {
+                Map<String, String> asked = askedTitles(query);
+                for (JsonElement page : query.getAsJsonArray("pages")) {
+                    String title = page.getAsJsonObject().get("title").getAsString();
+                    String askedTitle = asked.getOrDefault(title, title);
+                    if (titles.contains(askedTitle)) {
+                        consumer.accept(askedTitle, page.getAsJsonObject());
+                    }
+                }
+            }
+
+            if (!result.has("continue")) {
+                return;
+            }
+            for (Map.Entry<String, JsonElement> entry : result.getAsJsonObject("continue").entrySet()) {
+                request.put(entry.getKey(), entry.getValue().getAsString());
+            }
+        }
+    }
+
+    /**
+     * @param query the query object of a result
+     * @return a map from each title the wiki normalized to the title as it was asked for
+     */
+    private static Map<String, String> askedTitles(JsonObject query) {
+        Map<String, String> asked = new HashMap<>();
+        JsonArray normalized = query.getAsJsonArray("normalized");
+        if (normalized != null) {
+            for (JsonElement entry : normalized) {
+                asked.put(entry.getAsJsonObject().get("to").getAsString(),
+                        entry.getAsJsonObject().get("from").getAsString());
+            }
+        }
+        return asked;
+    }
+
+    /**
+     * @param params the parameters of the request, sent as a form since many titles do not fit in a URL
+     * @return the JSON object of the response
+     * @throws UncheckedIOException if the request failed
+     */
+    private JsonObject post(Map<String, String> params) {
+        StringBuilder form = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (form.length() > 0) {
+                form.append('&');
+            }
+            form.append(URLEncoder.encode(param.getKey(), StandardCharsets.UTF_8))
+                    .append('=')
+                    .append(URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8));
+        }
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(TIMEOUT_MILLI);
+            connection.setReadTimeout(TIMEOUT_MILLI);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(form.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            try (Reader in = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                return gson.fromJson(in, JsonObject.class);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
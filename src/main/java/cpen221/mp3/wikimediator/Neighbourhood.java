@@ -0,0 +1,76 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The pages within a number of hops of a page, each with its distance from that page. The pages
+ * within fewer hops are a prefix of them, so a neighbourhood answers every smaller number of hops,
+ * and every larger one too once a level added no new pages.
+ */
+final class Neighbourhood {
+
+    private final List<String> titles;
+    private final int[] ends;
+
+    //  Representation Invariant:
+    //      - titles is not null and holds no duplicates
+    //      - ends.length >= 1, ends[0] == 1, ends is non-decreasing and ends[ends.length - 1] == titles.size()
+    //
+    //  Abstraction Function:
+    //      Represents the pages within ends.length - 1 hops of titles.get(0), in order of distance:
+    //      the pages within d hops are titles[0..ends[d]-1].
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because it is immutable: titles is an unmodifiable copy and ends
+    //      is a private copy that is never written after construction.
+
+    /**
+     * @param titles the titles of the pages, in order of their distance from the first
+     * @param ends for every distance d from 0 to the number of hops searched, the number of pages within d hops
+     */
+    Neighbourhood(List<String> titles, int[] ends) {
+        this.titles = Collections.unmodifiableList(new ArrayList<>(titles));
+        this.ends = ends.clone();
+    }
+
+    /**
+     * @return the number of hops this neighbourhood was searched to
+     */
+    int hops() {
+        return ends.length - 1;
+    }
+
+    /**
+     * @param hops a number of hops, at least 0
+     * @return whether this neighbourhood holds every page within hops of its first page
+     */
+    boolean covers(int hops) {
+        int searched = hops();
+        return hops <= searched || (searched > 0 && ends[searched] == ends[searched - 1]);
+    }
+
+    /**
+     * @param hops a number of hops such that covers(hops)
+     * @return the titles of the pages within hops of the first page, in order of distance
+     */
+    List<String> within(int hops) {
+        return titles.subList(0, ends[Math.min(hops, hops())]);
+    }
+
+    /**
+     * @return the titles of every page in this neighbourhood, in order of distance
+     */
+    List<String> titles() {
+        return titles;
+    }
+
+    /**
+     * @return for every distance from 0 to hops(), the number of pages within that many hops
+     */
+    int[] ends() {
+        return Arrays.copyOf(ends, ends.length);
+    }
+}
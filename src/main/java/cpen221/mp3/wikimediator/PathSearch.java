@@ -0,0 +1,203 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Finds a shortest path of links between two pages, one level at a time. A forward search
+ * follows the links on each page from the start until it reaches the stop. A bidirectional
+ * search also works backwards from the stop through the backlinks to it, always growing
+ * whichever frontier is smaller, until the two meet; popular pages have thousands of links,
+ * so meeting in the middle visits far fewer pages than searching from the start alone.
+ * Pages are handled by their ids in the generation of graph taken when the search starts:
+ * frontiers are int lists, visited pages are bitsets and parents and depths are open-addressed
+ * int maps, so only the final path is turned back into titles. Levels are expanded
+ * asynchronously, as LinkGraph describes.
+ */
+class PathSearch {
+
+    private static final int NONE = -1;
+
+    private final LinkGraph graph;
+
+    //  Representation Invariant:
+    //      - graph is not null
+    //
+    //  Abstraction Function:
+    //      Represents a search over the links and backlinks in graph, requesting those of every page in a level
+    //      at once.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - graph is final and a thread safe type LinkGraph
+    //      - every search keeps its frontiers, visited sets, parents and depths in its own Sides, which only one
+    //        stage uses at a time, and each stage starts after the one before it completes
+
+    /**
+     * Create a search over graph.
+     *
+     * @param graph the links between pages
+     */
+    PathSearch(LinkGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * The pages one side of a search has visited. The forward side starts at the start page and
+     * follows links; the backward side starts at the stop page and follows backlinks.
+     */
+    private static final class Side {
+        private final BitSet visited = new BitSet();
+        private final IntIntMap parents = new IntIntMap(64);
+        private final IntIntMap depths = new IntIntMap(64);
+        private IntList frontier = new IntList(1);
+
+        Side(int page) {
+            visited.set(page);
+            depths.put(page, 0);
+            frontier.add(page);
+        }
+    }
+
+    /**
+     * Find a shortest path of links from startPage to stopPage, without waiting for the links of any
+     * level: each level is expanded on executor once its links have arrived.
+     *
+     * @param startPage the title of the page to start from
+     * @param stopPage the title of the page to reach
+     * @param deadline the time in milliseconds after which the search gives up
+     * @param bidirectional whether to also search backwards from stopPage
+     * @param executor expands each level
+     * @return the future titles of the pages on the path, starting with startPage and ending with stopPage,
+     *         an empty list if the deadline passed first, or null if there is no path. Once it is complete,
+     *         whether by the deadline or by the caller cancelling it, the search stops before its next level
+     */
+    CompletableFuture<List<String>> pathAsync(String startPage, String stopPage, long deadline,
+                                              boolean bidirectional, Executor executor) {
+        LinkGraph.Generation pages = graph.generation();
+        int start = pages.id(startPage);
+        int stop = pages.id(stopPage);
+        if (start == stop) {
+            List<String> samePage = new ArrayList<>();
+            samePage.add(startPage);
+            return CompletableFuture.completedFuture(samePage);
+        }
+
+        long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+        CompletableFuture<List<String>> result = new CompletableFuture<List<String>>()
+                .completeOnTimeout(new ArrayList<>(), remaining, TimeUnit.MILLISECONDS);
+        search(pages, new Side(start), new Side(stop), deadline, bidirectional, executor, result);
+        return result;
+    }
+
+    /**
+     * Grow forward, or backward if bidirectional and its frontier is smaller, one level at a time
+     * until the two sides meet, completing result with the titles of the pages on the path, an empty
+     * list if the deadline passed first, or null if there is no path. No level is fetched once result
+     * is done, as it is when the deadline passes or the caller cancels it. Pages are ids in pages, the
+     * generation of the graph the search took when it started.
+     */
+    private void search(LinkGraph.Generation pages, Side forward, Side backward, long deadline,
+                        boolean bidirectional, Executor executor, CompletableFuture<List<String>> result) {
+        if (result.isDone()) {
+            return;
+        }
+        if (forward.frontier.isEmpty() || backward.frontier.isEmpty()) {
+            result.complete(null);
+            return;
+        }
+        if (System.currentTimeMillis() > deadline) {
+            result.complete(new ArrayList<>());
+            return;
+        }
+
+        boolean growForward = !bidirectional || forward.frontier.size() <= backward.frontier.size();
+        Side side = growForward ? forward : backward;
+        Side other = growForward ? backward : forward;
+        IntFunction<CompletableFuture<int[]>> links = growForward ? pages::linksAsync : pages::backlinksAsync;
+
+        BreadthFirstSearch.fetchLevelAsync(side.frontier, links).thenAcceptAsync(linked -> {
+            if (result.isDone()) {
+                return;
+            }
+            int meeting = expand(side, linked, other);
+            if (meeting != NONE) {
+                result.complete(path(pages, meeting, forward, backward));
+                return;
+            }
+            search(pages, forward, backward, deadline, bidirectional, executor, result);
+        }, executor).exceptionally(e -> BreadthFirstSearch.fail(result, e));
+    }
+
+    /**
+     * Visit the pages adjacent to the frontier of side that it has not visited yet, making them
+     * its new frontier, and find where side now meets other. Every page in the new frontier has
+     * the same depth on side, so the meeting on a shortest path is the one closest to where other
+     * started.
+     *
+     * @param side the side to grow
+     * @param linked the pages adjacent to each page of the frontier of side, in the same order
+     * @param other the other side
+     * @return a page where the two sides meet on a shortest path, or NONE if they have not met
+     */
+    private static int expand(Side side, int[][] linked, Side other) {
+        IntList frontier = side.frontier;
+        IntList next = new IntList(Math.max(frontier.size(), 16));
+        int meeting = NONE;
+        int shortest = Integer.MAX_VALUE;
+
+        for (int i = 0; i < frontier.size(); i++) {
+            int page = frontier.get(i);
+            int depth = side.depths.get(page, 0) + 1;
+            for (int adjacent : linked[i]) {
+                if (side.visited.get(adjacent)) {
+                    continue;
+                }
+                side.visited.set(adjacent);
+                side.depths.put(adjacent, depth);
+                side.parents.put(adjacent, page);
+                next.add(adjacent);
+
+                if (other.visited.get(adjacent)) {
+                    int otherDepth = other.depths.get(adjacent, 0);
+                    if (otherDepth < shortest) {
+                        shortest = otherDepth;
+                        meeting = adjacent;
+                    }
+                }
+            }
+        }
+
+        side.frontier = next;
+        return meeting;
+    }
+
+    /**
+     * @param pages the generation of the graph the search took
+     * @param meeting a page visited from both sides
+     * @param forward the side searching from the start, whose parents link to their children
+     * @param backward the side searching from the stop, whose parents are linked to by their children
+     * @return the titles of the pages from the start to the stop through meeting
+     */
+    private static List<String> path(LinkGraph.Generation pages, int meeting, Side forward, Side backward) {
+        int forwardDepth = forward.depths.get(meeting, 0);
+        int[] path = new int[forwardDepth + backward.depths.get(meeting, 0) + 1];
+
+        int page = meeting;
+        for (int i = forwardDepth; i >= 0; i--) {
+            path[i] = page;
+            page = forward.parents.get(page, NONE);
+        }
+        page = meeting;
+        for (int i = forwardDepth + 1; i < path.length; i++) {
+            page = backward.parents.get(page, NONE);
+            path[i] = page;
+        }
+        return pages.titles(path);
+    }
+}
@@ -0,0 +1,212 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Counts strings and keeps them ranked by their counts as they are counted, so that the most
+ * common ones are read off the top instead of sorting every string on each read. Strings with the
+ * same count are kept together in a group, and the groups are linked in order of their counts:
+ * counting a string moves it to the group one above its own, creating that group if it is missing,
+ * so each count takes constant time, and the first limit strings are found by walking down from the
+ * highest group. Strings with the same count are ranked in the order they reached it.
+ */
+final class RankedCounter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The strings counted the same number of times.
+     */
+    private static final class Group {
+        private final long count;
+        private final LinkedHashSet<String> keys = new LinkedHashSet<>();
+        private Group higher;
+        private Group lower;
+
+        Group(long count) {
+            this.count = count;
+        }
+    }
+
+    private transient Map<String, Group> groups = new HashMap<>();
+    private transient Group highest;
+    private transient Group lowest;
+
+    //  Representation Invariant:
+    //      - following lower from highest visits every group once, in decreasing order of count, ending at lowest,
+    //        and following higher from lowest visits them in the opposite order
+    //      - every group has at least one key, and count >= 1
+    //      - groups maps each key to the one group holding it
+    //
+    //  Abstraction Function:
+    //      Represents a count for every string in groups, which is the count of its group. Strings are ranked by
+    //      decreasing count, and within a group in the order of its keys, which is the order they reached the count.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - every method that reads or writes groups, highest, lowest or a Group is synchronized
+    //      - increment takes constant time and mostCommon time proportional to limit, so the lock is never held
+    //        for long on the request path
+
+    /**
+     * Count key once more.
+     *
+     * @param key the string to count
+     */
+    void increment(String key) {
+        add(key, 1);
+    }
+
+    /**
+     * Count key n times more at once, as when restoring counts. Only increment is constant time:
+     * this moves key up past every group with a count between its old and new counts.
+     *
+     * @param key the string to count
+     * @param n the number of times to count it, at least 1
+     */
+    synchronized void add(String key, long n) {
+        Group from = groups.get(key);
+        long count = (from == null ? 0 : from.count) + n;
+        Group below = from;
+        Group above = from == null ? lowest : from.higher;
+        while (above != null && above.count < count) {
+            below = above;
+            above = above.higher;
+        }
+        Group to = above != null && above.count == count ? above : insertAbove(below, count);
+
+        to.keys.add(key);
+        groups.put(key, to);
+        if (from != null) {
+            from.keys.remove(key);
+            if (from.keys.isEmpty()) {
+                unlink(from);
+            }
+        }
+    }
+
+    /**
+     * @param limit the greatest number of strings to return, at least 0
+     * @return up to limit strings with the highest counts, in non-increasing order of count
+     */
+    synchronized List<String> mostCommon(int limit) {
+        List<String> top = new ArrayList<>(Math.min(limit, groups.size()));
+        for (Group group = highest; group != null && top.size() < limit; group = group.lower) {
+            for (String key : group.keys) {
+                if (top.size() == limit) {
+                    break;
+                }
+                top.add(key);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * @param consumer called with each string counted and its count, in rank order
+     */
+    synchronized void forEachRanked(BiConsumer<String, Long> consumer) {
+        for (Group group = highest; group != null; group = group.lower) {
+            for (String key : group.keys) {
+                consumer.accept(key, group.count);
+            }
+        }
+    }
+
+    /**
+     * @return the number of strings counted
+     */
+    synchronized int size() {
+        return groups.size();
+    }
+
+    /**
+     * @return a map from each string counted to its count
+     */
+    synchronized Map<String, Long> counts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Group group = highest; group != null; group = group.lower) {
+            for (String key : group.keys) {
+                counts.put(key, group.count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Link a new empty group with count just above below.
+     *
+     * @param below the group to put the new one above, or null to put it below every group
+     * @param count the count of the new group, greater than that of below and less than that of the group above it
+     * @return the new group
+     */
+    private Group insertAbove(Group below, long count) {
+        Group group = new Group(count);
+        group.lower = below;
+        group.higher = below == null ? lowest : below.higher;
+        if (group.higher == null) {
+            highest = group;
+        } else {
+            group.higher.lower = group;
+        }
+        if (below == null) {
+            lowest = group;
+        } else {
+            below.higher = group;
+        }
+        return group;
+    }
+
+    /**
+     * @param group an empty group to remove
+     */
+    private void unlink(Group group) {
+        if (group.higher == null) {
+            highest = group.lower;
+        } else {
+            group.higher.lower = group.lower;
+        }
+        if (group.lower == null) {
+            lowest = group.higher;
+        } else {
+            group.lower.higher = group.higher;
+        }
+    }
+
+    /**
+     * Write the strings in rank order with their counts, rather than the groups themselves,
+     * since serializing a long chain of groups would recurse once per group.
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(groups.size());
+        for (Group group = highest; group != null; group = group.lower) {
+            for (String key : group.keys) {
+                out.writeObject(key);
+                out.writeLong(group.count);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        groups = new HashMap<>();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String key = (String) in.readObject();
+            long count = in.readLong();
+            // keys arrive in rank order, so each one belongs in the lowest group or a new one below it
+            Group group = lowest != null && lowest.count == count ? lowest : insertAbove(null, count);
+            group.keys.add(key);
+            groups.put(key, group);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts requests per second, and keeps the greatest number of requests made in any window of a
+ * given number of consecutive seconds, for every window length it was created to track. Each window
+ * slides one second at a time, so a burst of requests that straddles the boundary of a fixed 30-second
+ * period is still counted in full. Each window length keeps the number of requests in its latest window
+ * and the greatest number seen, which are updated as requests arrive and as seconds pass, so counting a
+ * request on time takes time proportional to the number of window lengths tracked, not to the length of
+ * the windows. The counts of the last HISTORY_SECONDS seconds are kept in a ring, from which any other
+ * window length is answered on demand, without being tracked.
+ */
+public final class RequestLoad {
+
+    /* windows of up to an hour can be tracked */
+    public static final int HISTORY_SECONDS = 60 * 60;
+
+    /**
+     * The requests made in the latest window of one length, and the most made in any window of that length.
+     */
+    private static final class Window {
+        private final int seconds;
+        private long count;
+        private long peak;
+
+        Window(int seconds) {
+            this.seconds = seconds;
+        }
+    }
+
+    private final int[] counts = new int[HISTORY_SECONDS + 1];
+    private final List<Window> windows = new ArrayList<>();
+    private long first = -1;
+    private long current = -1;
+
+    //  Representation Invariant:
+    //      - if first is -1 so is current, every count is 0 and every window has count and peak 0
+    //      - otherwise first <= current, and the count of second s is at index s % counts.length for every
+    //        s in the last counts.length seconds up to current; every other index is 0
+    //      - every window has 1 <= seconds <= HISTORY_SECONDS, no two windows have the same seconds, count is
+    //        the sum of the counts of its last seconds seconds up to current, and count <= peak
+    //      - windows is only added to by the constructor
+    //
+    //  Abstraction Function:
+    //      Represents the requests made from second first to second current, as the number made each second.
+    //      For each window, peak is the greatest number made in any seconds consecutive seconds of them.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - every method that reads or writes counts, windows, first or current is synchronized
+    //      - counting a request on time takes time proportional to the number of windows, and a late one
+    //        to their total length, which is fixed at construction, so the lock is never held for long on
+    //        the request path
+
+    /**
+     * Count requests, tracking the peak load of windows of the given lengths from the first request.
+     *
+     * @param windowSeconds the lengths of the windows to track, in seconds, each between 1 and HISTORY_SECONDS
+     */
+    public RequestLoad(int... windowSeconds) {
+        for (int seconds : windowSeconds) {
+            Window window = window(seconds);
+            if (windows.stream().noneMatch(tracked -> tracked.seconds == seconds)) {
+                windows.add(window);
+            }
+        }
+    }
+
+    /**
+     * Count a request.
+     *
+     * @param timeMillis the time the request was made, in milliseconds since the epoch. A request made more
+     *                   than HISTORY_SECONDS before the latest one counted is not counted
+     */
+    public synchronized void record(long timeMillis) {
+        long second = timeMillis / 1000;
+        if (first < 0) {
+            first = second;
+            current = second;
+        }
+        advance(second);
+        if (current - second >= counts.length - 1) {
+            return;
+        }
+        first = Math.min(first, second);
+
+        counts[index(second)]++;
+        for (Window window : windows) {
+            if (current - second < window.seconds) {
+                window.count++;
+                window.peak = Math.max(window.peak, window.count);
+            }
+            if (second < current) {
+                // a late request also belongs to windows that ended before current
+                raisePeak(window, second);
+            }
+        }
+    }
+
+    /**
+     * Find the greatest number of requests made in any seconds consecutive seconds. For a length that is
+     * not tracked, only the last HISTORY_SECONDS seconds are searched, taking time proportional to
+     * HISTORY_SECONDS, and the length is not tracked afterwards.
+     *
+     * @param seconds the length of the windows, between 1 and HISTORY_SECONDS
+     * @return the greatest number of requests made in any window of that length
+     * @throws IllegalArgumentException if seconds is out of range
+     */
+    public synchronized long peak(int seconds) {
+        return window(seconds).peak;
+    }
+
+    /**
+     * Count the requests made in the latest seconds seconds, up to and including the second of nowMillis.
+     *
+     * @param seconds the length of the window, between 1 and HISTORY_SECONDS
+     * @param nowMillis the current time, in milliseconds since the epoch
+     * @return the number of requests made in the window
+     * @throws IllegalArgumentException if seconds is out of range
+     */
+    public synchronized long count(int seconds, long nowMillis) {
+        advance(nowMillis / 1000);
+        return window(seconds).count;
+    }
+
+    /**
+     * Move current up to second, dropping from each window the seconds that have left it.
+     * Takes time proportional to the number of windows for each second passed, up to HISTORY_SECONDS.
+     *
+     * @param second the current second, in seconds since the epoch
+     */
+    private void advance(long second) {
+        if (first < 0 || second <= current) {
+            return;
+        }
+        if (second - current >= counts.length) {
+            Arrays.fill(counts, 0);
+            for (Window window : windows) {
+                window.count = 0;
+            }
+            current = second;
+            return;
+        }
+        while (current < second) {
+            current++;
+            for (Window window : windows) {
+                window.count -= counts[index(current - window.seconds)];
+            }
+            counts[index(current)] = 0;
+        }
+    }
+
+    /**
+     * Raise the peak of window to the number of requests made in each window of its length that holds
+     * second and ended before current. Takes time proportional to the length of window.
+     *
+     * @param window a tracked window
+     * @param second a second before current whose count is in the ring
+     */
+    private void raisePeak(Window window, long second) {
+        long start = oldest();
+        long end = Math.min(second + window.seconds - 1, current - 1);
+        long count = 0;
+        for (long s = Math.max(start, second - window.seconds + 1); s <= second; s++) {
+            count += counts[index(s)];
+        }
+        window.peak = Math.max(window.peak, count);
+        for (long s = second + 1; s <= end; s++) {
+            count += counts[index(s)];
+            if (s - window.seconds >= start) {
+                count -= counts[index(s - window.seconds)];
+            }
+            window.peak = Math.max(window.peak, count);
+        }
+    }
+
+    /**
+     * @return the first second whose count is still in the ring
+     */
+    private long oldest() {
+        return Math.max(first, current - HISTORY_SECONDS);
+    }
+
+    /**
+     * @param seconds the length of a window, between 1 and HISTORY_SECONDS
+     * @return the tracked window of that length, or if it is not tracked, a window of that length found
+     *         from the seconds still in the ring
+     * @throws IllegalArgumentException if seconds is out of range
+     */
+    private Window window(int seconds) {
+        if (seconds < 1 || seconds > HISTORY_SECONDS) {
+            throw new IllegalArgumentException("windows must be between 1 and " + HISTORY_SECONDS
+                    + " seconds long, not " + seconds);
+        }
+        for (Window window : windows) {
+            if (window.seconds == seconds) {
+                return window;
+            }
+        }
+
+        Window window = new Window(seconds);
+        if (first >= 0) {
+            // slide the window over the seconds still in the ring
+            long start = oldest();
+            for (long second = start; second <= current; second++) {
+                window.count += counts[index(second)];
+                if (second - seconds >= start) {
+                    window.count -= counts[index(second - seconds)];
+                }
+                window.peak = Math.max(window.peak, window.count);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * @param second a second, in seconds since the epoch
+     * @return the index of its count in counts
+     */
+    private int index(long second) {
+        return (int) Math.floorMod(second, (long) counts.length);
+    }
+}
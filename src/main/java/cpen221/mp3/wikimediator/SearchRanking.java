@@ -0,0 +1,69 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The titles Wikipedia ranked highest for a search, in the order it ranked them. A ranking fetched
+ * with one limit is the prefix of the ranking fetched with any larger limit, so it answers every
+ * search for the same query with a limit up to its own, and every limit at all once Wikipedia has
+ * run out of results.
+ */
+final class SearchRanking {
+
+    private final List<String> titles;
+    private final int limit;
+
+    //  Representation Invariant:
+    //      - titles is not null and titles.size() <= limit
+    //      - limit >= 0
+    //
+    //  Abstraction Function:
+    //      Represents the first titles.size() results of a search that asked for up to limit results,
+    //      in ranked order. If titles.size() < limit, there are no more results.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because it is immutable: titles is an unmodifiable copy.
+
+    /**
+     * @param titles the titles returned for a search, in ranked order, at most limit of them
+     * @param limit the greatest number of titles the search asked for
+     */
+    SearchRanking(List<String> titles, int limit) {
+        this.titles = Collections.unmodifiableList(new ArrayList<>(titles));
+        this.limit = limit;
+    }
+
+    /**
+     * @param limit the greatest number of titles wanted
+     * @return whether this ranking holds the top limit titles of its search
+     */
+    boolean covers(int limit) {
+        return limit <= this.limit || titles.size() < this.limit;
+    }
+
+    /**
+     * @param limit the greatest number of titles wanted, such that covers(limit)
+     * @return the top limit titles of this ranking, sorted alphabetically
+     */
+    List<String> top(int limit) {
+        List<String> top = new ArrayList<>(titles.subList(0, Math.min(limit, titles.size())));
+        Collections.sort(top);
+        return top;
+    }
+
+    /**
+     * @return the titles of this ranking, in ranked order
+     */
+    List<String> titles() {
+        return titles;
+    }
+
+    /**
+     * @return the greatest number of titles the search for this ranking asked for
+     */
+    int limit() {
+        return limit;
+    }
+}
@@ -0,0 +1,546 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the requests counted in a WikiStatistics, kept in a directory so that the
+ * statistics survive a restart. Requests are queued and written by a thread of the log's own, which
+ * writes every request queued while it was busy in one go, and forces the log to the disk as its
+ * FsyncPolicy says. Once the log grows past SNAPSHOT_BYTES, the writer starts a new log file and writes
+ * a snapshot of the statistics logged so far in place of the old ones, so opening the log only reads the
+ * snapshot and the requests logged since.
+ *
+ * The directory holds:
+ *
+ *     statistics.lock      locked while a log has the directory open
+ *     statistics.snapshot  the generation of the first log file it does not cover, the length and CRC-32 of
+ *                          the statistics, and the statistics as WikiStatistics.writeSnapshot writes them
+ *     requests-<n>.log     the requests of generation n, each as the length and CRC-32 of the rest of the
+ *                          record, the time of the request as a long, the counts of requests given to
+ *                          WikiStatistics.setCount as ints, and the string used in the request
+ *
+ * A record cut short by a crash, and anything after it, is dropped when the log is opened.
+ * Every number is big-endian.
+ */
+final class StatisticsLog implements Closeable {
+
+    /* a new snapshot is written once the current log file reaches 8 MB */
+    static final long SNAPSHOT_BYTES = 8L * 1024 * 1024;
+
+    private static final String LOCK = "statistics.lock";
+    private static final String SNAPSHOT = "statistics.snapshot";
+    private static final String LOG_PREFIX = "requests-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * A request to write, or a point in the queue that the writer reports having reached.
+     */
+    private static final class Entry {
+        private final String query;
+        private final long timeMillis;
+        private final int maxRequestCount;
+        private final int requestCount;
+        private final CompletableFuture<Void> reached;
+        private final boolean last;
+
+        Entry(String query, long timeMillis, int maxRequestCount, int requestCount,
+              CompletableFuture<Void> reached, boolean last) {
+            this.query = query;
+            this.timeMillis = timeMillis;
+            this.maxRequestCount = maxRequestCount;
+            this.requestCount = requestCount;
+            this.reached = reached;
+            this.last = last;
+        }
+    }
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long snapshotBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final WikiStatistics logged;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final Thread writer;
+    private FileChannel log;
+    private long generation;
+    private long lastForce;
+    private boolean unforced;
+    private IOException failure;
+
+    //  Representation Invariant:
+    //      - lock is a valid lock on the lock file of directory, held by this log until the writer stops
+    //      - log is the open file of generation, the greatest generation in directory
+    //      - logged holds the statistics of the snapshot followed by every request written to the log files
+    //        since, in the order they were written
+    //      - unforced is true only if fsyncPolicy is INTERVAL and log has been written since lastForce
+    //      - once failure is set, nothing more is written
+    //
+    //  Abstraction Function:
+    //      Represents the requests counted in the snapshot and log files of directory, followed by the
+    //      requests in queue, in the order they were appended.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - directory, fsyncPolicy, snapshotBytes, lockChannel, lock, logged, queue, closed and writer are final
+    //      - queue is a thread safe type LinkedBlockingQueue, and is the only way callers reach the writer
+    //      - log, generation, lastForce, unforced and failure are only used by the thread that opens the log
+    //        until it starts writer, and by writer after
+    //      - logged is a thread safe type WikiStatistics
+    //      - the lock file keeps any other log, in this or another process, from using directory at the same time
+
+    /**
+     * Open the log kept in directory, creating it if it does not exist, reading the requests logged in it
+     * and starting its writer.
+     *
+     * @param directory the directory holding the log
+     * @param fsyncPolicy when to force the log to the disk
+     * @throws IOException if the directory cannot be read or written, or is in use by another log
+     */
+    StatisticsLog(Path directory, FsyncPolicy fsyncPolicy) throws IOException {
+        this(directory, fsyncPolicy, SNAPSHOT_BYTES);
+    }
+
+    /**
+     * Open the log kept in directory, as StatisticsLog(directory, fsyncPolicy) does, writing a snapshot
+     * every time the current log file reaches snapshotBytes.
+     *
+     * @param directory the directory holding the log
+     * @param fsyncPolicy when to force the log to the disk
+     * @param snapshotBytes the size of log file at which a snapshot is written, at least 1
+     * @throws IOException if the directory cannot be read or written, or is in use by another log
+     */
+    StatisticsLog(Path directory, FsyncPolicy fsyncPolicy, long snapshotBytes) throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.snapshotBytes = snapshotBytes;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException(directory + " is in use by another log");
+        }
+        lock = fileLock;
+
+        try {
+            logged = new WikiStatistics();
+            generation = readSnapshot();
+            NavigableMap<Long, Path> logs = logFiles();
+            for (Path file : logs.tailMap(generation, true).values()) {
+                replay(file);
+            }
+            deleteLogsBefore(generation);
+            if (!logs.isEmpty()) {
+                generation = Math.max(generation, logs.lastKey());
+            }
+            log = openLog(generation);
+            lastForce = System.nanoTime();
+        } catch (IOException | RuntimeException e) {
+            lock.release();
+            lockChannel.close();
+            throw e;
+        }
+
+        writer = new Thread(this::write, "wiki-statistics");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Add the statistics logged in the directory to target, as WikiStatistics.readSnapshot does.
+     * Must be called before anything is appended to this log.
+     *
+     * @param target the statistics to restore the logged ones into
+     */
+    void restoreInto(WikiStatistics target) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            logged.writeSnapshot(out);
+            target.readSnapshot(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (IOException e) {
+            // neither stream is backed by anything that can fail
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Queue a request to be logged, waiting only if the writer has fallen far behind.
+     * Requests appended after the log is closed are not logged.
+     *
+     * @param query the string used in the request
+     * @param timeMillis the time the request was made, in milliseconds since the epoch
+     * @param maxRequestCount the greatest number of requests made in 30 seconds, as given to WikiStatistics.setCount
+     * @param requestCount the number of requests made in the current 30 seconds, as given to WikiStatistics.setCount
+     */
+    void append(String query, long timeMillis, int maxRequestCount, int requestCount) {
+        enqueue(new Entry(query, timeMillis, maxRequestCount, requestCount, null, false));
+    }
+
+    /**
+     * Write and force every request appended so far.
+     *
+     * @return a future that completes once they are on the disk, or fails if they could not be written
+     */
+    CompletableFuture<Void> flush() {
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        if (!enqueue(new Entry(null, 0, 0, 0, flushed, false))) {
+            flushed.complete(null);
+        }
+        return flushed;
+    }
+
+    /**
+     * Write and force every request appended so far, stop the writer and release the directory
+     * for another log.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture<Void> stopped = new CompletableFuture<>();
+        try {
+            queue.put(new Entry(null, 0, 0, 0, stopped, true));
+            stopped.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param entry the entry to queue
+     * @return false if the log is closed and entry was not queued
+     */
+    private boolean enqueue(Entry entry) {
+        if (closed.get()) {
+            return false;
+        }
+        try {
+            queue.put(entry);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Write whatever is queued until the log is closed, taking every entry that is waiting at once
+     * so that requests appended together are written and forced together.
+     */
+    private void write() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Entry first;
+                if (unforced) {
+                    first = queue.poll(lastForce + FORCE_INTERVAL_NANOS - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (first == null) {
+                        force();
+                        continue;
+                    }
+                } else {
+                    first = queue.take();
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                if (writeBatch(batch)) {
+                    return;
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                // only close stops the writer
+            } catch (IOException e) {
+                e.printStackTrace();
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Write the requests of batch, force them as fsyncPolicy says, and report the points of batch reached.
+     *
+     * @param batch entries taken from the queue, in order
+     * @return true if batch ends the log, and the writer has stopped
+     * @throws IOException if the log could not be written, leaving the points of batch unreported
+     */
+    private boolean writeBatch(List<Entry> batch) throws IOException {
+        boolean barrier = false;
+        boolean last = false;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Entry entry : batch) {
+            if (entry.reached != null) {
+                barrier = true;
+                last |= entry.last;
+            } else if (failure == null) {
+                writeRecord(out, entry);
+            }
+        }
+
+        IOException error = failure;
+        if (error == null) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    log.write(buffer);
+                }
+                if (fsyncPolicy == FsyncPolicy.ALWAYS || barrier
+                        || (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastForce >= FORCE_INTERVAL_NANOS)) {
+                    force();
+                } else {
+                    unforced = fsyncPolicy == FsyncPolicy.INTERVAL;
+                }
+                if (log.size() >= snapshotBytes) {
+                    compact();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failure = e;
+                error = e;
+            }
+        }
+
+        if (last) {
+            stop();
+        }
+        for (Entry entry : batch) {
+            if (entry.reached != null) {
+                if (error == null || entry.last) {
+                    entry.reached.complete(null);
+                } else {
+                    entry.reached.completeExceptionally(error);
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Add a request to the records being written, and to logged.
+     *
+     * @param out the records being written
+     * @param entry a request
+     */
+    private void writeRecord(DataOutputStream out, Entry entry) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(payload)) {
+            record.writeLong(entry.timeMillis);
+            record.writeInt(entry.maxRequestCount);
+            record.writeInt(entry.requestCount);
+            WikiStatistics.writeString(record, entry.query);
+        }
+        byte[] bytes = payload.toByteArray();
+        out.writeInt(bytes.length);
+        out.writeInt(crc(bytes, 0, bytes.length));
+        out.write(bytes);
+
+        logged.addRequest(entry.query, entry.timeMillis);
+        logged.setCount(entry.maxRequestCount, entry.requestCount);
+    }
+
+    /**
+     * Force what has been written to the log to the disk.
+     */
+    private void force() throws IOException {
+        if (failure == null) {
+            log.force(false);
+        }
+        lastForce = System.nanoTime();
+        unforced = false;
+    }
+
+    /**
+     * Start the log of the next generation, then write a snapshot of logged, which holds every request
+     * of the earlier generations, and delete their log files.
+     */
+    private void compact() throws IOException {
+        FileChannel next = openLog(generation + 1);
+        log.force(false);
+        log.close();
+        log = next;
+        generation++;
+        writeSnapshot();
+        deleteLogsBefore(generation);
+    }
+
+    /**
+     * Force and close the log, and release the directory.
+     */
+    private void stop() {
+        try {
+            if (failure == null) {
+                log.force(false);
+            }
+            log.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replace the snapshot with one of logged covering every generation before the current one, writing it
+     * to a temporary file first so that a crash leaves either the old snapshot or the new one.
+     */
+    private void writeSnapshot() throws IOException {
+        ByteArrayOutputStream statistics = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(statistics)) {
+            logged.writeSnapshot(out);
+        }
+        byte[] bytes = statistics.toByteArray();
+
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + 2 * Integer.BYTES + bytes.length);
+            buffer.putLong(generation).putInt(bytes.length).putInt(crc(bytes, 0, bytes.length)).put(bytes).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read the snapshot into logged, if there is one.
+     *
+     * @return the generation of the first log file the snapshot does not cover, or 0 if there is no snapshot
+     * @throws IOException if the snapshot could not be read or is corrupt
+     */
+    private long readSnapshot() throws IOException {
+        Path file = directory.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        long first = buffer.getLong();
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        if (length != buffer.remaining() || crc(buffer.array(), buffer.position(), length) != crc) {
+            throw new IOException(file + " is corrupt");
+        }
+        logged.readSnapshot(new DataInputStream(
+                new ByteArrayInputStream(buffer.array(), buffer.position(), length)));
+        return first;
+    }
+
+    /**
+     * Count the requests of a log file in logged, and cut off any record that is incomplete or corrupt,
+     * with everything after it, as what a crash left half written.
+     *
+     * @param file a log file
+     */
+    private void replay(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (length < 0 || length > buffer.remaining() || crc(buffer.array(), buffer.position(), length) != crc) {
+                buffer.position(start);
+                break;
+            }
+            DataInputStream record = new DataInputStream(
+                    new ByteArrayInputStream(buffer.array(), buffer.position(), length));
+            long timeMillis = record.readLong();
+            int maxRequestCount = record.readInt();
+            int requestCount = record.readInt();
+            logged.addRequest(WikiStatistics.readString(record), timeMillis);
+            logged.setCount(maxRequestCount, requestCount);
+            buffer.position(buffer.position() + length);
+        }
+        if (buffer.position() < buffer.limit()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(buffer.position());
+            }
+        }
+    }
+
+    /**
+     * @return a map from the generation of every log file in directory to the file
+     */
+    private NavigableMap<Long, Path> logFiles() throws IOException {
+        NavigableMap<Long, Path> logs = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                logs.put(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())),
+                        file);
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * @param first the generation of the oldest log file to keep
+     */
+    private void deleteLogsBefore(long first) throws IOException {
+        for (Path file : logFiles().headMap(first, false).values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * @param generation the generation of a log file
+     * @return the log file, opened to append to, creating it if it does not exist
+     */
+    private FileChannel openLog(long generation) throws IOException {
+        return FileChannel.open(directory.resolve(LOG_PREFIX + generation + LOG_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @param bytes any bytes
+     * @param offset the first byte to check
+     * @param length the number of bytes to check
+     * @return the CRC-32 of the bytes
+     */
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,172 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Gathers lookups of single titles into requests for many titles at once. A title requested
+ * while a batch is open joins it; the batch is sent once it holds MAX_BATCH titles, or once the
+ * window has passed since its first title, whichever comes first. Batches are sent on an executor,
+ * so its number of threads bounds how many requests are in flight at once.
+ *
+ * @param <V> the type of the result for one title
+ */
+class TitleBatcher<V> {
+
+    /* the MediaWiki API accepts up to 50 titles in one query */
+    static final int MAX_BATCH = 50;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wiki-batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Function<List<String>, Map<String, ? extends V>> fetchBatch;
+    private final Function<String, ? extends V> fetchOne;
+    private final Executor executor;
+    private final long window;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Map<String, CompletableFuture<V>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> flush;
+
+    //  Representation Invariant:
+    //      - pending holds at most MAX_BATCH titles, and none of its futures are complete
+    //      - flush is null if and only if pending is empty
+    //
+    //  Abstraction Function:
+    //      Represents the open batch of titles pending, each related with the future its result will complete,
+    //      which flush will send once window milliseconds have passed since the first title joined it.
+    //      fetchBatch looks up many titles in one request, and fetchOne looks up a title that fetchBatch left out.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - fetchBatch, fetchOne, executor, window and lock are final, and TIMER is a thread safe type
+    //        ScheduledExecutorService
+    //      - pending and flush are only read or written while holding lock
+    //      - a batch is taken out of pending while holding lock, so it is only ever sent by one thread
+
+    /**
+     * Create a batcher with no batch open.
+     *
+     * @param fetchBatch looks up up to MAX_BATCH titles at once, returning a map from each title to its result
+     * @param fetchOne looks up one title, used for any title missing from the map fetchBatch returned
+     * @param executor sends the batches
+     * @param window the time in milliseconds a batch stays open for more titles
+     */
+    TitleBatcher(Function<List<String>, Map<String, ? extends V>> fetchBatch, Function<String, ? extends V> fetchOne,
+                 Executor executor, long window) {
+        this.fetchBatch = fetchBatch;
+        this.fetchOne = fetchOne;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Look up title in the next batch sent.
+     *
+     * @param title the title to look up
+     * @return the future result for title, which fails with the exception of the request if it failed
+     */
+    CompletableFuture<V> request(String title) {
+        Map<String, CompletableFuture<V>> full = null;
+        CompletableFuture<V> result;
+
+        lock.lock();
+        try {
+            result = pending.computeIfAbsent(title, t -> new CompletableFuture<>());
+            if (pending.size() >= MAX_BATCH) {
+                full = take();
+            } else if (flush == null) {
+                flush = TIMER.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (full != null) {
+            submit(full);
+        }
+        return result;
+    }
+
+    /**
+     * Send the open batch once its window has passed. Runs on TIMER.
+     */
+    private void flush() {
+        Map<String, CompletableFuture<V>> batch;
+        lock.lock();
+        try {
+            batch = take();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+    }
+
+    /**
+     * Close the open batch, so that later titles start a new one.
+     * Must be called while holding lock.
+     *
+     * @return the titles of the batch and their futures
+     */
+    private Map<String, CompletableFuture<V>> take() {
+        Map<String, CompletableFuture<V>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (flush != null) {
+            flush.cancel(false);
+            flush = null;
+        }
+        return batch;
+    }
+
+    private void submit(Map<String, CompletableFuture<V>> batch) {
+        try {
+            executor.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            for (CompletableFuture<V> result : batch.values()) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Look up every title of batch in one request and complete their futures.
+     *
+     * @param batch the titles to look up and their futures
+     */
+    private void send(Map<String, CompletableFuture<V>> batch) {
+        Map<String, ? extends V> results;
+        try {
+            results = fetchBatch.apply(new ArrayList<>(batch.keySet()));
+        } catch (RuntimeException | Error e) {
+            for (CompletableFuture<V> result : batch.values()) {
+                result.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (Map.Entry<String, CompletableFuture<V>> entry : batch.entrySet()) {
+            try {
+                V value = results.get(entry.getKey());
+                entry.getValue().complete(value != null ? value : fetchOne.apply(entry.getKey()));
+            } catch (RuntimeException | Error e) {
+                entry.getValue().completeExceptionally(e);
+            }
+        }
+    }
+}
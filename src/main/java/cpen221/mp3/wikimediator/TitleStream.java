@@ -0,0 +1,311 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Titles handed from a search to a client as the search finds them. The search offers the titles
+ * of each level it finishes, and waits to start the next level until the client has taken all but
+ * capacity of the titles offered, so a client that reads slowly slows the search down instead of
+ * letting titles pile up. A level of more than capacity titles is added capacity titles at a time,
+ * so the stream never holds more than twice capacity titles. The client takes titles one at a time as an Iterator, or as many as have
+ * arrived at once with nextAvailable, and closes the stream to stop the search early.
+ */
+public final class TitleStream implements Iterator<String>, Closeable {
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<String> buffer = new ArrayDeque<>();
+    private CompletableFuture<Void> drained;
+    private boolean finished;
+    private boolean closed;
+    private RuntimeException failure;
+
+    //  Representation Invariant:
+    //      - capacity >= 1
+    //      - drained is null, or is incomplete and buffer.size() > capacity
+    //      - if closed, then finished and buffer is empty
+    //      - failure is null unless finished
+    //
+    //  Abstraction Function:
+    //      Represents the titles a search has found that the client has not taken yet, in buffer, in the order
+    //      they were found. finished is true once the search has found every title, or failed with failure.
+    //      drained completes when the client has taken enough titles for the search to go on.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - capacity, lock and changed are final
+    //      - buffer, drained, finished, closed and failure are only read or written while holding lock
+    //      - futures are only completed after releasing lock, so the search never runs while holding it
+
+    /**
+     * Create an empty stream.
+     *
+     * @param capacity the number of titles the stream holds before the search waits for the client, at least 1
+     */
+    TitleStream(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add titles to the end of the stream, capacity of them at a time, waiting for the client to take
+     * all but capacity of the titles in the stream before adding more. Called by the search.
+     *
+     * @param titles the titles found, in order
+     * @return a future that completes once every title is added and the client has taken all but capacity
+     *         of the titles in the stream, or fails with CancellationException if the client closed the stream
+     */
+    CompletableFuture<Void> offer(List<String> titles) {
+        int from = 0;
+        do {
+            int to = Math.min(titles.size(), from + capacity);
+            CompletableFuture<Void> room = add(titles.subList(from, to));
+            from = to;
+            if (!room.isDone() || room.isCompletedExceptionally()) {
+                if (from == titles.size()) {
+                    return room;
+                }
+                List<String> rest = new ArrayList<>(titles.subList(from, titles.size()));
+                return room.thenCompose(ignored -> offer(rest));
+            }
+        } while (from < titles.size());
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Add titles to the end of the stream.
+     *
+     * @param titles the titles to add, at most capacity of them
+     * @return a future that completes once the client has taken all but capacity of the titles in the stream,
+     *         or fails with CancellationException if the client closed the stream
+     */
+    private CompletableFuture<Void> add(List<String> titles) {
+        lock.lock();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(new CancellationException());
+            }
+            buffer.addAll(titles);
+            changed.signalAll();
+            if (buffer.size() <= capacity) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (drained == null) {
+                drained = new CompletableFuture<>();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark the stream as complete once the client has taken the titles in it. Called by the search.
+     */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * End the stream with failure once the client has taken the titles in it. Called by the search.
+     *
+     * @param failure what the search failed with
+     */
+    void fail(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+
+        lock.lock();
+        try {
+            if (!finished) {
+                this.failure = failure instanceof RuntimeException
+                        ? (RuntimeException) failure : new CompletionException(failure);
+                finished = true;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until there is a title to take or the search is over.
+     *
+     * @return true if there is another title
+     * @throws RuntimeException whatever the search failed with, once every title found before is taken,
+     *         or CompletionException if the calling thread was interrupted
+     */
+    @Override
+    public boolean hasNext() {
+        lock.lock();
+        try {
+            awaitChange(Long.MAX_VALUE);
+            return hasTitle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next title, waiting for the search to find it.
+     *
+     * @return the next title
+     * @throws NoSuchElementException if the search found no more titles
+     */
+    @Override
+    public String next() {
+        String title;
+        CompletableFuture<Void> resume;
+        lock.lock();
+        try {
+            awaitChange(Long.MAX_VALUE);
+            if (!hasTitle()) {
+                throw new NoSuchElementException();
+            }
+            title = buffer.poll();
+            resume = release();
+        } finally {
+            lock.unlock();
+        }
+
+        complete(resume);
+        return title;
+    }
+
+    /**
+     * Take every title that has arrived, up to max of them, waiting until deadline for at least one.
+     *
+     * @param max the greatest number of titles to take, at least 1
+     * @param deadline the time in milliseconds after which to stop waiting, or Long.MAX_VALUE to wait
+     *        until a title arrives or the search is over
+     * @return the titles taken, in order, an empty list if the search found no more titles,
+     *         or null if the deadline passed first
+     * @throws RuntimeException whatever the search failed with, once every title found before is taken,
+     *         or CompletionException if the calling thread was interrupted
+     */
+    public List<String> nextAvailable(int max, long deadline) {
+        List<String> titles = new ArrayList<>();
+        CompletableFuture<Void> resume;
+        lock.lock();
+        try {
+            if (!awaitChange(deadline)) {
+                return null;
+            }
+            if (!hasTitle()) {
+                return titles;
+            }
+            while (titles.size() < max && !buffer.isEmpty()) {
+                titles.add(buffer.poll());
+            }
+            resume = release();
+        } finally {
+            lock.unlock();
+        }
+
+        complete(resume);
+        return titles;
+    }
+
+    /**
+     * Stop the search and drop the titles that have not been taken.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<Void> stop;
+        lock.lock();
+        try {
+            closed = true;
+            finished = true;
+            buffer.clear();
+            stop = drained;
+            drained = null;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (stop != null) {
+            stop.completeExceptionally(new CancellationException());
+        }
+    }
+
+    /**
+     * Wait until buffer holds a title or the stream is finished.
+     * Must be called while holding lock.
+     *
+     * @param deadline the time in milliseconds after which to stop waiting, or Long.MAX_VALUE for none
+     * @return false if the deadline passed first
+     * @throws CompletionException if the calling thread was interrupted
+     */
+    private boolean awaitChange(long deadline) {
+        try {
+            while (buffer.isEmpty() && !finished) {
+                if (deadline == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    changed.await(remaining, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Must be called while holding lock.
+     *
+     * @return true if buffer holds a title
+     * @throws RuntimeException whatever the search failed with, if buffer is empty
+     */
+    private boolean hasTitle() {
+        if (buffer.isEmpty() && failure != null) {
+            throw failure;
+        }
+        return !buffer.isEmpty();
+    }
+
+    /**
+     * Must be called while holding lock.
+     *
+     * @return drained if the client has now taken enough titles for the search to go on, to be completed
+     *         after releasing lock, or null
+     */
+    private CompletableFuture<Void> release() {
+        if (drained == null || buffer.size() > capacity) {
+            return null;
+        }
+        CompletableFuture<Void> resume = drained;
+        drained = null;
+        return resume;
+    }
+
+    private static void complete(CompletableFuture<Void> resume) {
+        if (resume != null) {
+            resume.complete(null);
+        }
+    }
+}
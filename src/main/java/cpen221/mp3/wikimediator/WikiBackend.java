@@ -0,0 +1,128 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The wiki a WikiMediator sends its queries to. Each method may block while it waits for the wiki,
+ * and throws an unchecked exception if the wiki could not answer. The methods for many titles at once
+ * look each title up in turn unless an implementation can do better, such as by sending one request
+ * for all of them.
+ */
+public interface WikiBackend {
+
+    /**
+     * @param query the words to search for
+     * @param limit the greatest number of titles to return, or -1 for as many as the wiki allows
+     * @return the titles of the pages that best match query, best first
+     */
+    List<String> search(String query, int limit);
+
+    /**
+     * @param title the title of a page
+     * @return the text of the latest revision of the page, or the empty string if it does not exist
+     */
+    String getPageText(String title);
+
+    /**
+     * @param title the title of a page
+     * @return the titles of the pages it links to
+     */
+    List<String> getLinksOnPage(String title);
+
+    /**
+     * @param title the title of a page
+     * @return the titles of the pages that link to it, including redirects to it, so that following links
+     *         back from a page finds every page whose links lead to it
+     */
+    List<String> whatLinksHere(String title);
+
+    /**
+     * @param title the title of a page
+     * @return the titles of the categories the page is in
+     */
+    List<String> getCategoriesOnPage(String title);
+
+    /**
+     * @param category the title of a category
+     * @return the titles of the pages in the category
+     */
+    List<String> getCategoryMembers(String category);
+
+    /**
+     * @param user the name of a user
+     * @return the titles of the pages the user has edited, most recent first, with repeats
+     */
+    List<String> getContribs(String user);
+
+    /**
+     * @param title the title of a page
+     * @return the name of the user who made the latest revision of the page, or null if it does not exist
+     */
+    String getLastEditor(String title);
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the text of its page, as getPageText returns it
+     */
+    default Map<String, String> pageText(List<String> titles) {
+        Map<String, String> texts = new HashMap<>();
+        for (String title : titles) {
+            texts.put(title, getPageText(title));
+        }
+        return texts;
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the titles of the pages it links to
+     */
+    default Map<String, List<String>> links(List<String> titles) {
+        Map<String, List<String>> links = new HashMap<>();
+        for (String title : titles) {
+            links.put(title, getLinksOnPage(title));
+        }
+        return links;
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the titles of the pages that link to it, including redirects to it
+     */
+    default Map<String, List<String>> backlinks(List<String> titles) {
+        Map<String, List<String>> backlinks = new HashMap<>();
+        for (String title : titles) {
+            backlinks.put(title, whatLinksHere(title));
+        }
+        return backlinks;
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the titles of the categories its page is in
+     */
+    default Map<String, List<String>> categories(List<String> titles) {
+        Map<String, List<String>> categories = new HashMap<>();
+        for (String title : titles) {
+            categories.put(title, getCategoriesOnPage(title));
+        }
+        return categories;
+    }
+
+    /**
+     * @param titles up to 50 titles of pages
+     * @return a map from each title to the user who made the latest revision of its page,
+     *         leaving out pages that do not exist
+     */
+    default Map<String, String> lastEditors(List<String> titles) {
+        Map<String, String> editors = new HashMap<>();
+        for (String title : titles) {
+            String editor = getLastEditor(title);
+            if (editor != null) {
+                editors.put(title, editor);
+            }
+        }
+        return editors;
+    }
+}
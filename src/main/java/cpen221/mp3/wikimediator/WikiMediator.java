@@ -1,30 +1,39 @@
 package cpen221.mp3.wikimediator;
 
-import fastily.jwiki.dwrap.Contrib;
-
-import java.io.FileOutputStream;
+import java.io.Closeable;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import cpen221.mp3.cache.Cache;
+import cpen221.mp3.cache.CacheStats;
 import cpen221.mp3.cache.Cacheable;
-import fastily.jwiki.core.Wiki;
-import org.antlr.v4.runtime.misc.Pair;
+import cpen221.mp3.cache.Codec;
+import cpen221.mp3.cache.DiskStore;
+import cpen221.mp3.cache.EvictionPolicy;
 
 /**
- * A class that utilizes the JWiki API to execute various queries on the en.wikipedia.org domain
+ * A class that utilizes the JWiki API to execute various queries on the en.wikipedia.org domain,
+ * or on any other WikiBackend it is given
  * The class also stores statistical data on the frequency of common requests.
- * Upon initialization, a thread is started to collect statistical data in 30
- * second intervals.
+ * Every request is counted in the second it was made by a RequestLoad, from which peakLoad30s
+ * and peakLoad(Duration) find the busiest window of requests without any background thread.
  */
 
-public class WikiMediator {
+public class WikiMediator implements Closeable {
 
     /**
      * A class that contains relevant information about any request made to WikiMediator to be stored in the cache
@@ -33,7 +42,6 @@ public class WikiMediator {
     public class CacheItem<V> implements Cacheable {
         private final String id;
         private final V item;
-        private final AtomicInteger count;
         private final String query;
         private final String type;
 
@@ -41,7 +49,6 @@ public class WikiMediator {
         //      - id must be a unique identifier for item
         //      - type must be one of the predefined operations possible for
         //        wikiMediator: getPage, simpleSearch, or getConnectedPages
-        //      - count must be >= 1 // ask about this field, and the way its incremented
         //
         //  Abstraction Function:
         //      Represents a data type that holds an item returned from wikiMediator functions
@@ -49,12 +56,10 @@ public class WikiMediator {
         //      the unique identification value associated with an item. Query represents the value
         //      passed into wikiMediator functions getPage, simpleSearch, or getConnectedPages to return item.
         //      type represents the function called (getPage, simpleSearch, or getConnectedPages) to return item.
-        //      count represents the number of times the
         //
         // Thread safety argument:
         //      This class is Thread-safe because:
         //      - id, query, item and type are final
-        //      - count is a thread safe type AtomicInteger and no race conditions exist
         //      - item points to generic type which may be mutable but is never mutated within the class
 
         /**
@@ -62,15 +67,14 @@ public class WikiMediator {
          * for wikiMediator
          *
          * @param item a generic object
-         * @param id the id of the item
+         * @param id the id of the item, unique to its type and query
          * @param query a collection of words to be addressed to Wikipedia
          * @param type the type of search
          */
-        public CacheItem(V item, int id, String query, String type) {
-            count = new AtomicInteger(1);
+        public CacheItem(V item, String id, String query, String type) {
             this.item = item;
             this.query = query;
-            this.id = String.valueOf(id);
+            this.id = id;
             this.type = type;
         }
 
@@ -89,20 +93,6 @@ public class WikiMediator {
             return id;
         }
 
-        /**
-         * @return the count
-         */
-        public Integer getCount() {
-            return count.get();
-        }
-
-        /**
-         * Used to increment the count by 1
-         */
-        public void incrementCount() {
-            count.incrementAndGet();
-        }
-
         /**
          * @return the query associated with item
          */
@@ -119,111 +109,384 @@ public class WikiMediator {
     }
 
 
-    private static final int THIRTY_SECS_MILLI = 30000;
+    private static final String DOMAIN = "en.wikipedia.org";
+    /* peakLoad30s finds the most requests made in any 30 seconds */
+    private static final Duration PEAK_WINDOW = Duration.ofSeconds(30);
+    /* getPath gives up on a search that has taken longer than 290 seconds */
+    private static final int PATH_TIMEOUT_MILLI = 290000;
+    /* getPage results are bounded by their estimated size, 64 MB, rather than by count */
+    private static final long PAGE_CACHE_BYTES = 64L * 1024 * 1024;
+    /* each cache may keep up to 256 MB of evicted results on disk when given a cache directory */
+    private static final long SECOND_LEVEL_BYTES = 256L * 1024 * 1024;
+    /* page text and search results are reloaded in the background once they are half as old as the timeout */
+    private static final int REFRESH_AFTER = Cache.DTIMEOUT / 2;
+    /* up to 8 requests to Wikipedia are in flight at once by default */
+    public static final int DPARALLELISM = 8;
+    /* titles looked up within 5 ms of each other are sent to Wikipedia in one request */
+    private static final long BATCH_WINDOW_MILLI = 5;
+    /* streamConnectedPages holds up to 1024 titles a client has not read before pausing the search */
+    private static final int STREAM_BUFFER_TITLES = 1024;
     private static final String SIMPLE_SEARCH = "simpleSearch";
     private static final String GET_PAGE = "getPage";
     private static final String GET_CONNECTED_PAGES = "getConnectedPages";
+    private static final Path DSTATISTICS_DIRECTORY = Paths.get("local", "statistics");
 
     private final Cache<CacheItem<String>> cacheGetPage;
-    private final Cache<CacheItem<List<String>>> cacheSimpleSearch;
-    private final Cache<CacheItem<List<String>>> cacheGetConnectedPage;
-    private final Map<CacheItem, Long> wikiMap;
+    private final Cache<CacheItem<SearchRanking>> cacheSimpleSearch;
+    private final Cache<CacheItem<Neighbourhood>> cacheGetConnectedPage;
     private WikiStatistics wikiStat;
-    private final Wiki wiki;
-    private AtomicInteger requestCount;
-    private AtomicInteger maxRequestCount;
+    private final WikiBackend backend;
+    private final ExecutorService wikiRequests;
+    private final Executor executor;
+    private final TitleBatcher<List<String>> linkBatcher;
+    private final TitleBatcher<List<String>> backlinkBatcher;
+    private final TitleBatcher<List<String>> categoryBatcher;
+    private final TitleBatcher<String> textBatcher;
+    private final TitleBatcher<String> editorBatcher;
+    private final LinkGraph linkGraph;
+    private final BreadthFirstSearch connectedPages;
+    private final PathSearch paths;
+    private final StatisticsLog statisticsLog;
+    private final RequestLoad load;
+    private final int previousPeak;
 
     //  Representation Invariants:
-    //      - cacheGetPage, cacheSimpleSearch, cacheGetConnectedPage, and wikiList cannot contain null entries
+    //      - cacheGetPage, cacheSimpleSearch and cacheGetConnectedPage cannot contain null entries
     //      - cacheGetConnectedPage contains only results returned from the getConnectedPages function
     //      - cacheGetPage contains only results returned from the getPages function
     //      - cacheSimpleSearch contains only results returned from the simpleSearch function
-    //      - Every key and value in wikiMap must share the relationship: value = the time when key was added to map
-    //      - wikiMap must contain every request from only getConnectedPages, getPages, and simpleSearch
-    //      - requestCount contains the number of requests from every public method in an instance of wikiMediator
-    //        in every consecutive 30 second window since the instantiation of this class
-    //      - maxRequestCount contains the maximum value requestCount since the instantiation of this class
-    //      - wiki must be linked to the en.wikipedia.org domain
+    //      - every cached item has the id of the CacheKey of its type and query, so a query has at most one
+    //        result in each cache, which holds the widest limit or most hops fetched for it
+    //      - all three caches use the TinyLFU eviction policy, so that results requested only once, such as
+    //        the pages visited by getPath, do not displace popular ones
+    //      - when a cache directory is given, each cache that could open one has its own DiskStore under it
+    //      - load has counted every request to a public method of this instance, and tracks windows of
+    //        PEAK_WINDOW
+    //      - previousPeak is the greatest number of requests made in 30 seconds before this instance was created
+    //      - backend is the only way this class reaches a wiki
+    //      - wikiRequests has a fixed number of threads, at least 1, on which every batcher sends its requests
+    //        and simpleSearch searches; executor only runs work that never waits for Wikipedia
+    //      - wikiStat is only written to disk through statisticsLog, if there is one, which is appended every
+    //        request counted in wikiStat after it was restored
+    //      - linkGraph fetches links and backlinks through linkBatcher and backlinkBatcher, and getConnectedPages
+    //        and getPath only learn links through it
+    //      - page text, categories and last editors are only looked up through textBatcher, categoryBatcher and
+    //        editorBatcher
     //
     //  Abstraction Function:
     //      Represents a data type that processes various requests to en.wikipedia.org through the JWiki API and collects
     //      statistical data on the requests. cacheGetConnectedPage, cacheGetPage, and cacheSimpleSearch maintain caches of the requests
-    //      from their respective functions. wikiMap represents all requests processed by WikiMediator and the time it was processed.
-    //      wiki represents a __. requestCount represents the number of requests for the functions getConnectedPages, getPages
-    //      simpleSearch, zeitgeist, and trending in every consecutive 30 second window since the instantiation of this class. maxRequestCount
-    //      represents the the maximum value requestCount since the instantiation of this class.
+    //      from their respective functions.
+    //      backend represents the wiki queried, en.wikipedia.org unless given another. load represents the number of requests to the public methods
+    //      made in each second since the instantiation of this class, and the peak load of each window length asked for. The
+    //      peak load in 30 seconds is the greater of previousPeak and the peak load of load.
     //
     // Thread safety argument:
     //      This class is Thread-safe because:
-    //      - because all modifications of state have synchronized locks
-    //      - thread-safe types ConcurrentHashMap, CacheItem, Cache, and Atomic Integer are used
+    //      - no method holds a lock shared with other requests: cache misses are loaded through Cache.getOrLoad,
+    //        which fetches each result once while hits on other entries carry on, and network and disk I/O only
+    //        run on wikiRequests and the writer of statisticsLog
+    //      - load is a thread safe type RequestLoad, and previousPeak is final
+    //      - every synchronous operation waits on its asynchronous counterpart, whose stages hand their results to
+    //        one another through CompletableFutures
+    //      - thread-safe types CacheItem, Cache, ExecutorService, Executor, TitleBatcher, LinkGraph,
+    //        BreadthFirstSearch, PathSearch, WikiStatistics and StatisticsLog are used
 
     /**
      * Initialize the cache to have the default capacity and timeout
      * Initialize the wiki to reference the domain of Wikipedia
-     * Initialize
-     * Initialize a counter for the amount of requests, requestCount, and the maximum amount of requests, maxRequestCount
-     * as 0
-     * Start ThirtySecCount() thread
+     * Initialize the statistics with no requests counted
+     * Initialize the count of requests made in each second, with the peak load in 30 seconds as 0
      */
     public WikiMediator() {
-        cacheGetPage = new Cache<>();
-        cacheSimpleSearch = new Cache<>();
-        cacheGetConnectedPage = new Cache<>();
-        wiki = new Wiki("en.wikipedia.org");
-        wikiMap = new ConcurrentHashMap<>();
-        wikiStat = new WikiStatistics();
-        requestCount = new AtomicInteger(0);
-        maxRequestCount = new AtomicInteger(0);
-        ThirtySecCount();
+        this(new WikiStatistics(), 0, new JWikiBackend(DOMAIN), null, DPARALLELISM, ForkJoinPool.commonPool(), null);
     }
 
+    /**
+     * Initialize as WikiMediator() does, counting requests on top of wikiStat and maxRequestCount, and
+     * keeping the statistics in the default statistics directory, local/statistics, so that they survive
+     * a restart. The statistics logged there by an earlier WikiMediator are restored into wikiStat first.
+     *
+     * @param wikiStat the statistics to count requests in
+     * @param maxRequestCount the greatest number of requests made in 30 seconds so far, at least 0
+     */
     public WikiMediator(WikiStatistics wikiStat, int maxRequestCount) {
-        cacheGetPage = new Cache<>();
-        cacheSimpleSearch = new Cache<>();
-        cacheGetConnectedPage = new Cache<>();
-        wiki = new Wiki("en.wikipedia.org");
-        wikiMap = new ConcurrentHashMap<>();
+        this(new JWikiBackend(DOMAIN), wikiStat, maxRequestCount, DSTATISTICS_DIRECTORY, FsyncPolicy.INTERVAL);
+    }
+
+    /**
+     * Initialize as WikiMediator(wikiStat, maxRequestCount) does, sending every query to backend instead of
+     * en.wikipedia.org and keeping the statistics in statisticsDirectory. Every request is appended to a log
+     * there by a thread of the mediator's own, so no request waits on the disk, and the log is forced to the
+     * disk as fsyncPolicy says. If the directory cannot be opened, for instance because another WikiMediator
+     * is using it, the statistics are kept in memory only.
+     *
+     * @param backend the wiki to query
+     * @param wikiStat the statistics to restore the logged statistics into and count requests in
+     * @param maxRequestCount the greatest number of requests made in 30 seconds so far, at least 0
+     * @param statisticsDirectory the directory to keep the statistics in
+     * @param fsyncPolicy when to force the logged statistics to the disk
+     */
+    public WikiMediator(WikiBackend backend, WikiStatistics wikiStat, int maxRequestCount, Path statisticsDirectory,
+                        FsyncPolicy fsyncPolicy) {
+        this(wikiStat, maxRequestCount, backend, null, DPARALLELISM, ForkJoinPool.commonPool(),
+                openStatisticsLog(statisticsDirectory, fsyncPolicy, wikiStat));
+    }
+
+    /**
+     * Initialize as WikiMediator() does, additionally keeping the results each cache evicts from
+     * memory on disk under cacheDirectory, so that they survive a restart. A cache whose store
+     * cannot be opened, for instance because another WikiMediator is using it, runs in memory only.
+     *
+     * @param cacheDirectory the directory to keep evicted results in
+     */
+    public WikiMediator(Path cacheDirectory) {
+        this(cacheDirectory, DPARALLELISM);
+    }
+
+    /**
+     * Initialize as WikiMediator(cacheDirectory) does, sending up to parallelism requests to Wikipedia
+     * at once. Titles looked up at about the same time, such as the pages of one level explored by
+     * getConnectedPages, are sent together, up to 50 in one request.
+     *
+     * @param cacheDirectory the directory to keep evicted results in, or null to keep them in memory only
+     * @param parallelism the greatest number of requests to Wikipedia in flight at once, at least 1
+     */
+    public WikiMediator(Path cacheDirectory, int parallelism) {
+        this(cacheDirectory, parallelism, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initialize as WikiMediator(cacheDirectory, parallelism) does, running the work of the asynchronous
+     * operations on executor. That work never waits for Wikipedia, so executor needs no more threads than
+     * there are processors; the requests themselves are sent on threads of the mediator's own.
+     *
+     * @param cacheDirectory the directory to keep evicted results in, or null to keep them in memory only
+     * @param parallelism the greatest number of requests to Wikipedia in flight at once, at least 1
+     * @param executor runs the searches of getConnectedPagesAsync and getPathAsync as their links arrive
+     */
+    public WikiMediator(Path cacheDirectory, int parallelism, Executor executor) {
+        this(new JWikiBackend(DOMAIN), cacheDirectory, parallelism, executor);
+    }
+
+    /**
+     * Initialize as WikiMediator() does, sending every query to backend instead of en.wikipedia.org,
+     * such as a FixtureBackend for tests and benchmarks that must not depend on the network.
+     *
+     * @param backend the wiki to query
+     */
+    public WikiMediator(WikiBackend backend) {
+        this(backend, null, DPARALLELISM, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initialize as WikiMediator(cacheDirectory, parallelism, executor) does, sending every query to backend
+     * instead of en.wikipedia.org.
+     *
+     * @param backend the wiki to query
+     * @param cacheDirectory the directory to keep evicted results in, or null to keep them in memory only
+     * @param parallelism the greatest number of requests to backend in flight at once, at least 1
+     * @param executor runs the searches of getConnectedPagesAsync and getPathAsync as their links arrive
+     */
+    public WikiMediator(WikiBackend backend, Path cacheDirectory, int parallelism, Executor executor) {
+        this(new WikiStatistics(), 0, backend, cacheDirectory, parallelism, executor, null);
+    }
+
+    private WikiMediator(WikiStatistics wikiStat, int maxRequestCount, WikiBackend backend, Path cacheDirectory,
+                         int parallelism, Executor executor, StatisticsLog statisticsLog) {
+        cacheGetPage = new Cache.Builder<CacheItem<String>>()
+                .withMaxWeight(PAGE_CACHE_BYTES, WikiMediator::estimateSize)
+                .withPolicy(EvictionPolicy.TINY_LFU)
+                .withSecondLevel(openSecondLevel(cacheDirectory, GET_PAGE,
+                        new CacheItemCodec<>(GET_PAGE, text -> text, text -> text)))
+                .withRefreshAfter(REFRESH_AFTER)
+                .build();
+        cacheSimpleSearch = new Cache.Builder<CacheItem<SearchRanking>>()
+                .withPolicy(EvictionPolicy.TINY_LFU)
+                .withSecondLevel(openSecondLevel(cacheDirectory, SIMPLE_SEARCH,
+                        new CacheItemCodec<>(SIMPLE_SEARCH, WikiMediator::rankingText, WikiMediator::parseRanking)))
+                .withRefreshAfter(REFRESH_AFTER)
+                .build();
+        cacheGetConnectedPage = new Cache.Builder<CacheItem<Neighbourhood>>()
+                .withPolicy(EvictionPolicy.TINY_LFU)
+                .withSecondLevel(openSecondLevel(cacheDirectory, GET_CONNECTED_PAGES,
+                        new CacheItemCodec<>(GET_CONNECTED_PAGES, WikiMediator::neighbourhoodText,
+                                WikiMediator::parseNeighbourhood)))
+                .build();
+        this.backend = backend;
+        this.executor = executor;
+        wikiRequests = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "wiki-requests");
+            thread.setDaemon(true);
+            return thread;
+        });
+        linkBatcher = new TitleBatcher<>(backend::links, backend::getLinksOnPage, wikiRequests, BATCH_WINDOW_MILLI);
+        backlinkBatcher = new TitleBatcher<>(backend::backlinks, backend::whatLinksHere, wikiRequests,
+                BATCH_WINDOW_MILLI);
+        categoryBatcher = new TitleBatcher<>(backend::categories, backend::getCategoriesOnPage, wikiRequests,
+                BATCH_WINDOW_MILLI);
+        textBatcher = new TitleBatcher<>(backend::pageText, backend::getPageText, wikiRequests, BATCH_WINDOW_MILLI);
+        editorBatcher = new TitleBatcher<>(backend::lastEditors, backend::getLastEditor, wikiRequests,
+                BATCH_WINDOW_MILLI);
+        linkGraph = new LinkGraph(linkBatcher::request, backlinkBatcher::request, Cache.DTIMEOUT);
+        connectedPages = new BreadthFirstSearch(linkGraph);
+        paths = new PathSearch(linkGraph);
+        this.statisticsLog = statisticsLog;
         this.wikiStat = wikiStat;
-        requestCount = new AtomicInteger(0);
-        this.maxRequestCount = new AtomicInteger(maxRequestCount);
-        ThirtySecCount();
+        load = new RequestLoad((int) PEAK_WINDOW.getSeconds());
+        previousPeak = Math.max(maxRequestCount, wikiStat.getMaxRequestCount());
     }
 
     /**
-     * Thread which compares the value of requestCount and maxRequestCount every 30 seconds
-     * and updates the value of maxRequestCount to be equal to requestCount if requestCount
-     * is greater than maxRequestCount.
+     * Open the store for the results of one operation under cacheDirectory.
      *
-     * Prints the stack trace in the case of an InterruptedException
-     */
-    public void ThirtySecCount() {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (true) {
-                    synchronized (this) {
-                        int currReq = requestCount.get();
-                        int currMax = maxRequestCount.get();
-                        if (currReq > currMax) {
-                            maxRequestCount.compareAndExchange(currMax, currReq);
-                        }
-                        requestCount.compareAndSet(currReq, 0);
-                    }
-                    try {
-                        Thread.sleep(THIRTY_SECS_MILLI);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }).start();
+     * @param cacheDirectory the directory to keep evicted results in, or null to keep none
+     * @param type the operation whose results are stored
+     * @param codec converts the results to and from bytes
+     * @return the store, or null if cacheDirectory is null or the store could not be opened
+     */
+    private static <V> DiskStore<CacheItem<V>> openSecondLevel(Path cacheDirectory, String type, Codec<CacheItem<V>> codec) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+
+        try {
+            return new DiskStore<>(cacheDirectory.resolve(type), codec, SECOND_LEVEL_BYTES, Cache.DTIMEOUT);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Open the log of the statistics kept in statisticsDirectory, restoring them into wikiStat.
+     *
+     * @param statisticsDirectory the directory to keep the statistics in
+     * @param fsyncPolicy when to force the logged statistics to the disk
+     * @param wikiStat the statistics to restore the logged statistics into
+     * @return the log, or null if it could not be opened
+     */
+    private static StatisticsLog openStatisticsLog(Path statisticsDirectory, FsyncPolicy fsyncPolicy,
+                                                   WikiStatistics wikiStat) {
+        try {
+            StatisticsLog statisticsLog = new StatisticsLog(statisticsDirectory, fsyncPolicy);
+            statisticsLog.restoreInto(wikiStat);
+            return statisticsLog;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Converts the results of one operation to and from bytes, as the UTF-8 length and text of the query
+     * followed by the UTF-8 text of the item.
+     *
+     * @param <V> the type of the results
+     */
+    private class CacheItemCodec<V> implements Codec<CacheItem<V>> {
+        private final String type;
+        private final Function<V, String> toText;
+        private final Function<String, V> fromText;
+
+        CacheItemCodec(String type, Function<V, String> toText, Function<String, V> fromText) {
+            this.type = type;
+            this.toText = toText;
+            this.fromText = fromText;
+        }
+
+        public byte[] encode(CacheItem<V> item) {
+            byte[] query = item.getQuery().getBytes(StandardCharsets.UTF_8);
+            byte[] text = toText.apply(item.getItem()).getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(Integer.BYTES + query.length + text.length)
+                    .putInt(query.length).put(query).put(text).array();
+        }
+
+        public CacheItem<V> decode(String id, byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int queryLength = buffer.getInt();
+            String query = new String(bytes, Integer.BYTES, queryLength, StandardCharsets.UTF_8);
+            int textStart = Integer.BYTES + queryLength;
+            String text = new String(bytes, textStart, bytes.length - textStart, StandardCharsets.UTF_8);
+            return new CacheItem<>(fromText.apply(text), id, query, type);
+        }
+    }
+
+    /**
+     * @param titles a list of page titles, none of which contain a line break
+     * @return the titles separated by line breaks
+     */
+    private static String joinTitles(List<String> titles) {
+        return String.join("\n", titles);
+    }
+
+    /**
+     * @param text page titles separated by line breaks, as returned by joinTitles
+     * @return the list of page titles in text
+     */
+    private static List<String> splitTitles(String text) {
+        if (text.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(text.split("\n")));
+    }
+
+    /**
+     * @param ranking the ranking of a search
+     * @return the limit of ranking on the first line, followed by its titles as joinTitles writes them
+     */
+    private static String rankingText(SearchRanking ranking) {
+        return ranking.limit() + "\n" + joinTitles(ranking.titles());
+    }
+
+    /**
+     * @param text a ranking as written by rankingText
+     * @return the ranking in text
+     */
+    private static SearchRanking parseRanking(String text) {
+        int lineEnd = text.indexOf('\n');
+        return new SearchRanking(splitTitles(text.substring(lineEnd + 1)), Integer.parseInt(text.substring(0, lineEnd)));
+    }
+
+    /**
+     * @param neighbourhood the pages within some hops of a page
+     * @return the number of pages within each distance, separated by commas, on the first line,
+     *         followed by the titles as joinTitles writes them
+     */
+    private static String neighbourhoodText(Neighbourhood neighbourhood) {
+        StringJoiner ends = new StringJoiner(",");
+        for (int end : neighbourhood.ends()) {
+            ends.add(String.valueOf(end));
+        }
+        return ends + "\n" + joinTitles(neighbourhood.titles());
+    }
+
+    /**
+     * @param text a neighbourhood as written by neighbourhoodText
+     * @return the neighbourhood in text
+     */
+    private static Neighbourhood parseNeighbourhood(String text) {
+        int lineEnd = text.indexOf('\n');
+        int[] ends = Arrays.stream(text.substring(0, lineEnd).split(",")).mapToInt(Integer::parseInt).toArray();
+        return new Neighbourhood(splitTitles(text.substring(lineEnd + 1)), ends);
+    }
+
+    /**
+     * Estimate the number of bytes a cached page occupies, counting two bytes per character
+     * of the page text and its title.
+     *
+     * @param item a cached result of getPage
+     * @return the estimated size of item in bytes
+     */
+    private static long estimateSize(CacheItem<String> item) {
+        return 2L * (item.getItem().length() + item.getQuery().length());
     }
 
     /**
      * Given a query, find up to limit page titles that match the query string
      * If the item is not in the cache, adds it to the cache. Utilizes Jwiki
-     * search method.
+     * search method. The ranking Wikipedia returned is cached with its limit, so a search
+     * for the same query with a smaller limit is answered from the top of it.
      *
      * @param query a collection of words to be addressed to Wikipedia. query
      *        must not be an empty string.
@@ -232,43 +495,36 @@ public class WikiMediator {
      *         if no pages match query.
      */
     public List<String> simpleSearch(String query, int limit) {
-        requestCount.getAndIncrement();
-        wikiStat.addRequest(new Pair<>(query, String.valueOf(System.currentTimeMillis())));
-        wikiStat.setCount(maxRequestCount.intValue(), requestCount.intValue());
-
-        try {
-            FileOutputStream fos = new FileOutputStream("local\\local.txt");
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(wikiStat);
-            oos.close();
-            fos.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return BreadthFirstSearch.join(simpleSearchAsync(query, limit));
+    }
 
-        try {
-            synchronized (this) {
-                CacheItem<List<String>> val = cacheSimpleSearch.get(String.valueOf(query.hashCode()));
-                cacheSimpleSearch.touch(val.id());
-                wikiMap.replace(val, System.currentTimeMillis());
-                val.incrementCount();
-                return val.getItem();
-            }
-        } catch (NotInCacheException e) {
-            synchronized (this) {
-                List<String> res = wiki.search(query, limit);
-                Collections.sort(res);
-                CacheItem<List<String>> val = new CacheItem(res, query.hashCode(), query, SIMPLE_SEARCH);
-                cacheSimpleSearch.put(val);
-                wikiMap.put(val, System.currentTimeMillis());
-                return val.getItem();
-            }
-        }
+    /**
+     * Find up to limit page titles that match query, as simpleSearch does, without waiting for Wikipedia.
+     * The search itself runs on the threads that send requests to Wikipedia.
+     *
+     * @param query a collection of words to be addressed to Wikipedia. query
+     *        must not be an empty string.
+     * @param limit the maximum amount of page titles to request, must be greater than or equal to 0
+     * @return the future list of page titles that match the query string, which fails with whatever
+     *         the search failed with
+     */
+    public CompletableFuture<List<String>> simpleSearchAsync(String query, int limit) {
+        load.record(System.currentTimeMillis());
+        countRequest(query);
+
+        CacheKey key = CacheKey.ofSearch(SIMPLE_SEARCH, query);
+        // a refresh fetches as many titles as the ranking it replaces, so it never narrows it
+        return cacheSimpleSearch.getOrLoadAsync(key.id(), id -> search(key, limit),
+                (id, old) -> search(key, Math.max(limit, old.getItem().limit())))
+                .thenCompose(val -> val.getItem().covers(limit) ? CompletableFuture.completedFuture(val)
+                        : search(key, limit).thenApply(wider -> store(cacheSimpleSearch, wider)))
+                .thenApply(val -> val.getItem().top(limit));
     }
 
     /**
      * Given a pageTitle, find the text associated with the Wikipedia page that matches pageTitle.
-     * If the item is not in the cache, add it in the cache. Utilizes JWiki getPageText method.
+     * If the item is not in the cache, add it in the cache. The text is fetched in a batch with
+     * the other pages looked up at the same time.
      *
      * @param pageTitle a string which represents the title of a specific page. pageTitle
      *        must not be an empty string.
@@ -276,34 +532,34 @@ public class WikiMediator {
      *         will return empty string if pageTitle matches no pages.
      */
     public String getPage(String pageTitle) {
-        requestCount.getAndIncrement();
-        wikiStat.addRequest(new Pair<>(pageTitle, String.valueOf(System.currentTimeMillis())));
-        wikiStat.setCount(maxRequestCount.intValue(), requestCount.intValue());
-
-        try {
-            synchronized (this) {
-                CacheItem<String> val = cacheGetPage.get(String.valueOf(pageTitle.hashCode()));
-                cacheGetPage.touch(val.id());
-                wikiMap.replace(val, System.currentTimeMillis());
-                val.incrementCount();
-                return val.getItem();
-            }
-        } catch (NotInCacheException e) {
-            synchronized (this) {
-                CacheItem<String> val = new CacheItem(wiki.getPageText(pageTitle), pageTitle.hashCode(), pageTitle, GET_PAGE);
-                cacheGetPage.put(val);
-                wikiMap.put(val, System.currentTimeMillis());
-                return val.getItem();
-            }
-        }
+        return BreadthFirstSearch.join(getPageAsync(pageTitle));
+    }
 
+    /**
+     * Find the text of the page titled pageTitle, as getPage does, without waiting for Wikipedia.
+     *
+     * @param pageTitle a string which represents the title of a specific page. pageTitle
+     *        must not be an empty string.
+     * @return the future text of the page, the empty string if pageTitle matches no pages, which fails
+     *         with whatever fetching the text failed with
+     */
+    public CompletableFuture<String> getPageAsync(String pageTitle) {
+        load.record(System.currentTimeMillis());
+        countRequest(pageTitle);
+
+        CacheKey key = CacheKey.ofTitle(GET_PAGE, pageTitle);
+        return cacheGetPage.getOrLoadAsync(key.id(), id -> textBatcher.request(key.query())
+                        .thenApply(text -> new CacheItem<>(text, id, key.query(), GET_PAGE)))
+                .thenApply(val -> val.getItem());
     }
 
     /**
      * Given the pageTitle and the amount of hops, find a list of page titles that can be reached by following
      * up to hops links starting with the page specified by pageTitle
      * If the item is not in the cache, add it in the cache
-     * Utilizes Jwiki getLinksOnPage method.
+     * The links of every page in one hop are requested at once, in batches of up to 50 pages.
+     * The distance of every page is cached, so a request for fewer hops from the same page is
+     * answered from the pages found for more.
      *
      * @param pageTitle a string which represents the title of a specific page. pageTitle
      *        must not be an empty string.
@@ -313,94 +569,186 @@ public class WikiMediator {
      *         list will only contain pageTitle if hops is equal to 0.
      */
     public List<String> getConnectedPages(String pageTitle, int hops) {
-        requestCount.getAndIncrement();
-        Set<String> included = new HashSet<>();
+        return BreadthFirstSearch.join(getConnectedPagesAsync(pageTitle, hops));
+    }
 
-        try {
-            synchronized (this) {
-                CacheItem<List<String>> val = cacheGetConnectedPage.get(String.valueOf(pageTitle.hashCode() * hops));
-                cacheGetConnectedPage.touch(val.id());
-                wikiMap.replace(val, System.currentTimeMillis());
-                val.incrementCount();
-                return val.getItem();
-            }
-        } catch (NotInCacheException e) {
-            getConnectedPagesRecursive(pageTitle, hops, included);
-            synchronized (this) {
-                CacheItem<List<String>> val = new CacheItem(new ArrayList<>(included), pageTitle.hashCode() * hops, pageTitle, GET_CONNECTED_PAGES);
-                cacheGetConnectedPage.put(val);
-                wikiMap.put(val, System.currentTimeMillis());
-                return val.getItem();
+    /**
+     * Find the titles of the pages within hops links of pageTitle, as getConnectedPages does, without
+     * waiting for Wikipedia. Each level of links is expanded on the executor of this mediator once
+     * it has arrived.
+     *
+     * @param pageTitle a string which represents the title of a specific page. pageTitle
+     *        must not be an empty string.
+     * @param hops the greatest number of links to follow, greater than or equal to 0
+     * @return the future list of page titles within hops links of pageTitle, which fails with whatever
+     *         fetching the links of a page failed with. Cancelling it stops the search this call started,
+     *         if any, before its next level; calls waiting on that search then fail with CancellationException
+     */
+    public CompletableFuture<List<String>> getConnectedPagesAsync(String pageTitle, int hops) {
+        load.record(System.currentTimeMillis());
+
+        CacheKey key = CacheKey.ofTitle(GET_CONNECTED_PAGES, pageTitle);
+        List<CompletableFuture<?>> searches = new CopyOnWriteArrayList<>();
+        CompletableFuture<List<String>> pages = cacheGetConnectedPage
+                .getOrLoadAsync(key.id(), id -> explore(key, hops, searches))
+                .thenCompose(val -> val.getItem().covers(hops) ? CompletableFuture.completedFuture(val)
+                        : explore(key, hops, searches).thenApply(wider -> store(cacheGetConnectedPage, wider)))
+                .thenApply(val -> new ArrayList<>(new HashSet<>(val.getItem().within(hops))));
+        pages.whenComplete((val, e) -> {
+            if (pages.isCancelled()) {
+                // pages is derived from the searches, so cancelling it does not reach them by itself
+                searches.forEach(search -> search.cancel(true));
             }
-        }
-
+        });
+        return pages;
     }
 
     /**
-     * Recursive helper method for get connected pages
+     * Stream the titles of the pages within hops links of pageTitle, level by level, as getConnectedPages
+     * finds them: pageTitle first, then the pages one link away as soon as its links have arrived, and so on.
+     * The stream holds up to 1024 titles the client has not taken yet besides those of the latest level,
+     * and the next level is not fetched until the client has taken the rest, so a slow client slows the
+     * search down rather than letting titles pile up. Once the search completes its result is cached
+     * for getConnectedPages, and pages already cached are streamed from the cache.
      *
      * @param pageTitle a string which represents the title of a specific page. pageTitle
      *        must not be an empty string.
-     * @param hops represents the depth of links we follow with the root being all the links on the page of pageTitle. hops must be
-     *        greater than or equal to 0.
-     * @param included a set of page titles that can be reached by following up to hops links starting with the first page title in
-     *        this set
+     * @param hops the greatest number of links to follow, greater than or equal to 0
+     * @return the stream of titles, which the client should close if it stops reading before the end
      */
-    private void getConnectedPagesRecursive(String pageTitle, int hops, Set<String> included) {
-        included.add(pageTitle);
+    public TitleStream streamConnectedPages(String pageTitle, int hops) {
+        load.record(System.currentTimeMillis());
+
+        CacheKey key = CacheKey.ofTitle(GET_CONNECTED_PAGES, pageTitle);
+        TitleStream stream = new TitleStream(STREAM_BUFFER_TITLES);
+        CacheItem<Neighbourhood> cached = cacheGetConnectedPage.getIfPresent(key.id());
+        if (cached != null && cached.getItem().covers(hops)) {
+            // the titles are added as the client takes them, so the stream only finishes after the last one
+            stream.offer(cached.getItem().within(hops)).thenRun(stream::finish);
+            return stream;
+        }
+
+        connectedPages.withinAsync(key.query(), hops, executor, stream::offer).whenComplete((pages, e) -> {
+            if (e != null) {
+                stream.fail(e);
+                return;
+            }
+            CacheItem<Neighbourhood> val = new CacheItem<>(pages, key.id(), key.query(), GET_CONNECTED_PAGES);
+            store(cacheGetConnectedPage, val);
+            stream.finish();
+        });
+        return stream;
+    }
+
+    /**
+     * @param key the key of a search
+     * @param limit the greatest number of titles to fetch
+     * @return the future ranking Wikipedia returns for the query of key, as an item for cacheSimpleSearch,
+     *         searched for on wikiRequests
+     */
+    private CompletableFuture<CacheItem<SearchRanking>> search(CacheKey key, int limit) {
+        return CompletableFuture.supplyAsync(() -> new CacheItem<>(
+                new SearchRanking(backend.search(key.query(), limit), limit), key.id(), key.query(), SIMPLE_SEARCH),
+                wikiRequests);
+    }
 
-        if (hops == 0) {
-            return;
+    /**
+     * @param key the key of the page to start from
+     * @param hops the greatest number of links to follow
+     * @param searches collects the future result of the search, which stops the search when cancelled
+     * @return the future pages within hops of the page of key, as an item for cacheGetConnectedPage
+     */
+    private CompletableFuture<CacheItem<Neighbourhood>> explore(CacheKey key, int hops,
+                                                               List<CompletableFuture<?>> searches) {
+        CompletableFuture<Neighbourhood> search = connectedPages.withinAsync(key.query(), hops, executor);
+        searches.add(search);
+        return search.thenApply(pages -> new CacheItem<>(pages, key.id(), key.query(), GET_CONNECTED_PAGES));
+    }
+
+    /**
+     * Put wider, which covers more than the item cache holds under the same id, in place of that item.
+     * Two requests widening the same item at once both fetch it, and the one stored last stays.
+     *
+     * @param cache the cache to store wider in
+     * @param wider the item to store
+     * @return wider
+     */
+    private static <V> CacheItem<V> store(Cache<CacheItem<V>> cache, CacheItem<V> wider) {
+        if (!cache.update(wider)) {
+            cache.put(wider);
         }
+        return wider;
+    }
 
-        List<String> links = wiki.getLinksOnPage(pageTitle);
+    /**
+     * Count a request using query in wikiStat, and append it to statisticsLog if there is one.
+     * The request is written to disk on the thread of the log, so it never waits on the disk.
+     *
+     * @param query the string used in the request
+     */
+    private void countRequest(String query) {
+        long timeMillis = System.currentTimeMillis();
+        int max = peakLoad(PEAK_WINDOW, previousPeak);
+        int count = (int) load.count((int) PEAK_WINDOW.getSeconds(), timeMillis);
+        wikiStat.addRequest(query, timeMillis);
+        wikiStat.setCount(max, count);
+        if (statisticsLog != null) {
+            statisticsLog.append(query, timeMillis, max, count);
+        }
+    }
 
-        for (String title : links) {
-            if (!included.contains(title)) {
-                getConnectedPagesRecursive(title, hops - 1, included);
-            }
+    /**
+     * Report the statistics of the caches behind getPage, simpleSearch and getConnectedPages.
+     * Unlike the other operations, this is not counted as a request.
+     *
+     * @return a map from the name of each operation to a snapshot of the statistics of its cache
+     */
+    public Map<String, CacheStats> cacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put(GET_PAGE, cacheGetPage.stats());
+        stats.put(SIMPLE_SEARCH, cacheSimpleSearch.stats());
+        stats.put(GET_CONNECTED_PAGES, cacheGetConnectedPage.stats());
+        return stats;
+    }
+
+    /**
+     * Close the caches behind getPage, simpleSearch and getConnectedPages, flushing their
+     * second levels to disk and releasing the cache directory for another WikiMediator,
+     * and stop the threads that send requests to Wikipedia. The statistics logged so far are written and
+     * forced to the disk, and the statistics directory is released for another WikiMediator.
+     *
+     * @throws IOException if a second level could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        cacheGetPage.close();
+        cacheSimpleSearch.close();
+        cacheGetConnectedPage.close();
+        wikiRequests.shutdownNow();
+        if (statisticsLog != null) {
+            statisticsLog.close();
         }
     }
 
     /**
-     * Find the most common strings used in simpleSearch and getPage requests out of all requests in wikiMap, with
-     * items sorted in non-increasing count order.
+     * Find the most common strings used in simpleSearch and getPage requests out of all requests made, with
+     * items sorted in non-increasing count order. The counts are kept ranked as requests arrive, so this takes
+     * time proportional to limit; strings requested equally often are in the order they reached that count.
      *
      * @param limit the maximum size of the list returned, must be greater than or equal to 0. If limit is less than
      *        the size of the return list, the entire list will be returned.
      * @return the most common strings used in simpleSearch and getPage requests, with items sorted in non-increasing count order.
      *         If more requests than limit have been made, only return up to limit items
      */
-    public synchronized List<String> zeitgeist(int limit) {
-        requestCount.getAndIncrement();
-
-//        List<CacheItem> list = filterSortRequests();
-//        List<String> zeitListString = list.stream()
-//                .map(i -> i.getQuery())
-//                .distinct()
-//                .collect(Collectors.toList());
-
-        Map<String, Integer> reqCount = new HashMap<>();
-        for (Pair<String, String> p : wikiStat.getRequests()) {
-            if (reqCount.containsKey(p.a)) {
-                reqCount.replace(p.a, reqCount.get(p.a) + 1);
-            } else {
-                reqCount.put(p.a, 1);
-            }
-        }
-
-        List<String> zeitListString = sortRequests(reqCount);
-
-        if (zeitListString.size() > limit) {
-            return zeitListString.subList(0, limit);
-        } else {
-            return zeitListString;
-        }
+    public List<String> zeitgeist(int limit) {
+        load.record(System.currentTimeMillis());
+        return wikiStat.mostCommon(limit);
     }
 
     /**
-     * Find the most common strings used in simpleSearch and getPage requests out of all requests in wikiMap, with
-     * items sorted in non-increasing count order made within the last 30 seconds.
+     * Find the most common strings used in simpleSearch and getPage requests out of all requests made, with
+     * items sorted in non-increasing count order made within the last 30 seconds. Requests are counted
+     * per second, so a request stops trending between 30 and 31 seconds after it was made.
      *
      * @param limit the maximum amount of items at any given instance, must be greater than or equal to 0. If limit is less than
      *        the size of the return list, the entire list will be returned.
@@ -408,27 +756,9 @@ public class WikiMediator {
      *         in non-increasing count order. If more requests than limit have been made, only return up to limit items.
      */
     public List<String> trending(int limit) {
-        requestCount.getAndIncrement();
-//
-//        List<CacheItem> list = filterSortRequests();
-//        List<String> trendListString = list.stream()
-//                .filter(i -> THIRTY_SECS_MILLI >= (System.currentTimeMillis() - wikiMap.get(i)))
-//                .map(i -> i.getQuery())
-//                .distinct()
-//                .collect(Collectors.toList());
-//
-        Map<String, Integer> reqCount = new HashMap<>();
-        for (Pair<String, String> p : wikiStat.getRequests()) {
-            if (System.currentTimeMillis() - Long.parseLong(p.b) <= THIRTY_SECS_MILLI){
-                if (reqCount.containsKey(p.a)) {
-                    reqCount.replace(p.a, reqCount.get(p.a) + 1);
-                } else {
-                    reqCount.put(p.a, 1);
-                }
-            }
-        }
+        load.record(System.currentTimeMillis());
 
-        List<String> trendListString = sortRequests(reqCount);
+        List<String> trendListString = sortRequests(wikiStat.recentCounts(System.currentTimeMillis()));
 
         if (trendListString.size() > limit) {
             return trendListString.subList(0, limit);
@@ -438,118 +768,114 @@ public class WikiMediator {
     }
 
     /**
-     * Helper method for trending and zeitgeist which handles common sorting and filtering
+     * Helper method for trending which handles sorting
      */
-    private List<String> sortRequests(Map<String, Integer> reqCount) {
+    private List<String> sortRequests(Map<String, Long> reqCount) {
         List<String> sortList = reqCount.keySet().stream()
-                .sorted((p1, p2) -> reqCount.get(p2) - reqCount.get(p1))
+                .sorted((p1, p2) -> Long.compare(reqCount.get(p2), reqCount.get(p1)))
                 .collect(Collectors.toList());
         return sortList;
     }
 
     /**
+     * Find the greatest number of requests made in any 30 seconds, counting this one. The 30 seconds
+     * slide one second at a time, so requests made in a burst across the boundary of two fixed periods
+     * are counted together. When this mediator was given the peak load of an earlier one, that is counted too.
+     *
      * @return maximum number of requests made in any 30 seconds
      */
-    public synchronized int peakLoad30s() {
-        requestCount.getAndIncrement();
+    public int peakLoad30s() {
+        load.record(System.currentTimeMillis());
+        return peakLoad(PEAK_WINDOW, previousPeak);
+    }
 
-        int currReq = requestCount.get();
-        int currMax = maxRequestCount.get();
-        if (currReq > currMax) {
-            maxRequestCount.compareAndExchange(currMax, currReq);
-        }
+    /**
+     * Find the greatest number of requests made in any window of whole seconds, counting this one, as
+     * peakLoad30s does for 30 seconds. Windows of any other length are found from the requests of the
+     * last hour each time they are asked for, without slowing down the requests that follow.
+     *
+     * @param window the length of the windows, a whole number of seconds between 1 second and 1 hour
+     * @return maximum number of requests made in any window of that length
+     * @throws IllegalArgumentException if window is not a whole number of seconds between 1 second and 1 hour
+     */
+    public int peakLoad(Duration window) {
+        load.record(System.currentTimeMillis());
+        return peakLoad(window, window.equals(PEAK_WINDOW) ? previousPeak : 0);
+    }
 
-        return maxRequestCount.get();
+    /**
+     * @param window the length of the windows, a whole number of seconds between 1 second and 1 hour
+     * @param floor the least value to return
+     * @return maximum number of requests made in any window of that length, or floor if that is greater
+     * @throws IllegalArgumentException if window is not a whole number of seconds between 1 second and 1 hour
+     */
+    private int peakLoad(Duration window, int floor) {
+        if (window.getNano() != 0 || window.getSeconds() < 1 || window.getSeconds() > RequestLoad.HISTORY_SECONDS) {
+            throw new IllegalArgumentException("window must be a whole number of seconds between 1 and "
+                    + RequestLoad.HISTORY_SECONDS + ", not " + window);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(floor, load.peak((int) window.getSeconds())));
     }
 
     /**
      * Find the path of pages it takes to get from startPage to stopPage
+     * The links of each page are shared with getConnectedPages, so pages either has visited
+     * recently are not fetched again.
      *
      * @param startPage the root page to begin the path
      * @param stopPage the destination page at the end of the path
-     * @return list of pages to get from startPage to stopPage
+     * @return list of pages to get from startPage to stopPage, an empty list if the search took
+     *         longer than 290 seconds, or null if there is no path
      */
     public List<String> getPath(String startPage, String stopPage) {
-        requestCount.getAndIncrement();
-
-        Set<String> visited = new HashSet<>();
-        Queue<Node> queue = new ArrayDeque<>();
-
-        queue.add(new Node(startPage, null));
-
-        if(startPage.equals(stopPage)) {
-            List<String> samePage = new ArrayList<>();
-            samePage.add(startPage);
-            return samePage;
-        }
-
-        long startTime = System.currentTimeMillis();
-
-        while(!queue.isEmpty()) {
-            Node current = queue.poll();
-
-            long currentTime = System.currentTimeMillis();
-
-            if(currentTime - startTime > 290000) {
-                return new ArrayList<>();
-            }
-
-            if(!visited.contains(current.getNode())) {
-                for(String s : getConnectedPages(current.getNode(), 1)) {
-                    Node child = new Node(s, current);
-
-                    if(s.equals(stopPage)) {
-                        return buildPath(child);
-                    }
-                    queue.add(child);
-                }
-                visited.add(current.getNode());
-            }
-        }
-        return null;
+        return getPath(startPage, stopPage, false);
     }
 
     /**
-     * Helper method to getPath which builds the path from startPage to stopPage
-     * @param child, of type Node that represents the child of the most recent parent page
-     * @return an arraylist containing the full path from startPage to stopPage
+     * Find the path of pages it takes to get from startPage to stopPage, searching forwards from startPage
+     * one level of links at a time. If bidirectional is true, the search also works backwards from stopPage through the pages that link
+     * to it, always growing the smaller of the two frontiers, and stops when they meet. This finds a shortest
+     * path while visiting far fewer pages when the pages on the way have many links.
+     *
+     * @param startPage the root page to begin the path
+     * @param stopPage the destination page at the end of the path
+     * @param bidirectional whether to also search backwards from stopPage
+     * @return list of pages to get from startPage to stopPage, an empty list if the search took
+     *         longer than 290 seconds, or null if there is no path
      */
-    private List<String> buildPath(Node child) {
-        Stack<String> stack = new Stack<>();
-        Node current = child;
-        while (current != null) {
-            stack.push(current.getNode());
-            current = current.getParent();
-        }
-        List<String> path = new ArrayList<>();
-        while (!stack.isEmpty()) {
-            path.add(stack.pop());
-        }
-        return path;
+    public List<String> getPath(String startPage, String stopPage, boolean bidirectional) {
+        return BreadthFirstSearch.join(getPathAsync(startPage, stopPage, bidirectional));
     }
 
     /**
-     * A private class used only for methods buildPath and getPath which
-     * helps keep track of parents and their respective children.
+     * Find the path of pages it takes to get from startPage to stopPage, as getPath does, without
+     * waiting for Wikipedia.
+     *
+     * @param startPage the root page to begin the path
+     * @param stopPage the destination page at the end of the path
+     * @return the future list of pages to get from startPage to stopPage, an empty list if the search took
+     *         longer than 290 seconds, or null if there is no path
      */
-    private static class Node {
-        private final Node parent;
-        private final String node;
-
-        Node(String node, Node parent) {
-            this.parent = parent;
-            this.node = node;
-        }
-
-        Node getParent() {
-            return parent;
-        }
-
-        String getNode() {
-            return node;
-        }
+    public CompletableFuture<List<String>> getPathAsync(String startPage, String stopPage) {
+        return getPathAsync(startPage, stopPage, false);
     }
 
+    /**
+     * Find the path of pages it takes to get from startPage to stopPage, as getPath does, without
+     * waiting for Wikipedia. Each level of links is expanded on the executor of this mediator once
+     * it has arrived, and the result is an empty list as soon as 290 seconds have passed.
+     *
+     * @param startPage the root page to begin the path
+     * @param stopPage the destination page at the end of the path
+     * @param bidirectional whether to also search backwards from stopPage
+     * @return the future list of pages to get from startPage to stopPage, an empty list if the search took
+     *         longer than 290 seconds, or null if there is no path
+     */
+    public CompletableFuture<List<String>> getPathAsync(String startPage, String stopPage, boolean bidirectional) {
+        load.record(System.currentTimeMillis());
+        return paths.pathAsync(startPage, stopPage, System.currentTimeMillis() + PATH_TIMEOUT_MILLI, bidirectional,
+                executor);
+    }
 
     /**
      * Execute the client-specified structured query
@@ -560,7 +886,7 @@ public class WikiMediator {
      * @return the response from the server taken a structured query as input
      */
     public List<String> excuteQuery(String query) throws InvalidQueryException {
-        requestCount.getAndIncrement();
+        load.record(System.currentTimeMillis());
         Query que = QueryFactory.parse(query);
         List<Condition> condList = que.getConditions();
 
@@ -587,10 +913,12 @@ public class WikiMediator {
             case "page":
                 return list;
             case "author":
-                List<String> authRes = list.stream().map(q -> wiki.getLastEditor(q)).distinct().collect(Collectors.toList());
+                List<String> authRes = BreadthFirstSearch.fetchAll(list, editorBatcher::request).stream()
+                        .filter(Objects::nonNull).distinct().collect(Collectors.toList());
                 return authRes;
             case "category":
-                List<String> catRes = list.stream().map(q -> wiki.getCategoriesOnPage(q)).flatMap(List::stream).distinct().collect(Collectors.toList());
+                List<String> catRes = BreadthFirstSearch.fetchAll(list, categoryBatcher::request).stream()
+                        .flatMap(List::stream).distinct().collect(Collectors.toList());
                 return catRes;
         }
 
@@ -600,18 +928,19 @@ public class WikiMediator {
     private ArrayList<String> performCond(String item, String query) throws InvalidQueryException {
         switch(item) {
             case "title":
-                return wiki.search(query, -1);
+                return new ArrayList<>(backend.search(query, -1));
             case "author":
                 ArrayList<String> res = new ArrayList<>();
-                ArrayList<Contrib> contributions = wiki.getContribs(query,  -1, false);
-                for (Contrib c : contributions) {
-                    if(wiki.getLastEditor(c.title) == query) {
-                        res.add(c.title);
+                List<String> contributions = backend.getContribs(query).stream().distinct().collect(Collectors.toList());
+                List<String> editors = BreadthFirstSearch.fetchAll(contributions, editorBatcher::request);
+                for (int i = 0; i < contributions.size(); i++) {
+                    if (query.equals(editors.get(i))) {
+                        res.add(contributions.get(i));
                     }
                 }
                 return res;
             case "category":
-                return wiki.getCategoryMembers(query);
+                return new ArrayList<>(backend.getCategoryMembers(query));
         }
 
         throw new InvalidQueryException();
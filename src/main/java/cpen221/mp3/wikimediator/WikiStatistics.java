@@ -1,48 +1,262 @@
 package cpen221.mp3.wikimediator;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import org.antlr.v4.runtime.misc.Pair;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counts the strings used in requests: how many times each one has been used in all, and how many
+ * times in each of the last TRENDING_SECONDS seconds. The total counts are kept ranked as they are
+ * counted, so the most common strings are read off the top without sorting. The recent counts are
+ * kept in a ring of buckets, one per second, which are reused as time moves on, so memory only grows
+ * with the number of distinct strings and not with the number of requests, and the recent counts are
+ * summed from TRENDING_SECONDS + 1 buckets rather than from every request ever made.
+ */
 public class WikiStatistics implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private List<Pair<String, String>> requests = new ArrayList<>();
+    private static final long serialVersionUID = 3L;
+
+    /* trending counts the requests made in the last 30 seconds */
+    public static final int TRENDING_SECONDS = 30;
+
+    private final RankedCounter totals = new RankedCounter();
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(TRENDING_SECONDS + 1);
     private AtomicInteger maxRequestCount = new AtomicInteger();
     private AtomicInteger requestCount = new AtomicInteger();
 
-    public void addRequest(Pair<String, String> request) {
-        requests.add(request);
+    //  Representation Invariant:
+    //      - the bucket of second s, if there is one, is at index s % buckets.length()
+    //      - the sum of the counts of a string over every bucket is at most its count in totals
+    //
+    //  Abstraction Function:
+    //      Represents the requests made so far: totals maps each string to the number of requests that used it,
+    //      and the bucket of second s maps each string to the number of them made during s, for every s in
+    //      the last buckets.length() seconds that had a request.
+    //
+    // Thread safety argument:
+    //      This class is Thread-safe because:
+    //      - totals is a thread safe type RankedCounter, whose lock is only held for constant time per request
+    //      - buckets is a thread safe type AtomicReferenceArray, and a bucket is only replaced by compareAndSet,
+    //        so two threads starting a new second cannot both replace it; the counts of a bucket are a
+    //        ConcurrentHashMap of LongAdder
+    //      - no lock but that of totals is held while counting, so concurrent requests barely wait on each other
+    //      - maxRequestCount and requestCount are thread safe type AtomicInteger
+
+    /**
+     * The requests made during one second.
+     */
+    private static final class Bucket implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long second;
+        private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+        Bucket(long second) {
+            this.second = second;
+        }
+    }
+
+    /**
+     * Count a request.
+     *
+     * @param query the string used in the request
+     * @param timeMillis the time the request was made, in milliseconds since the epoch
+     */
+    public void addRequest(String query, long timeMillis) {
+        totals.increment(query);
+        addRecent(query, timeMillis / 1000, 1);
     }
 
-    public List<Pair<String, String>> getRequests() {
-        return new ArrayList<>(requests);
+    /**
+     * Count count requests using query during second in the recent counts only.
+     *
+     * @param query the string used in the requests
+     * @param second the second the requests were made, in seconds since the epoch
+     * @param count the number of requests
+     */
+    private void addRecent(String query, long second, long count) {
+        int index = (int) (second % buckets.length());
+        Bucket bucket = buckets.get(index);
+        while (bucket == null || bucket.second < second) {
+            Bucket started = new Bucket(second);
+            if (buckets.compareAndSet(index, bucket, started)) {
+                bucket = started;
+            } else {
+                bucket = buckets.get(index);
+            }
+        }
+        // a request that waited so long to be counted that its bucket has been reused is only counted in totals
+        if (bucket.second == second) {
+            bucket.counts.computeIfAbsent(query, q -> new LongAdder()).add(count);
+        }
+    }
+
+    /**
+     * @return a map from each string used in a request to the number of requests that used it
+     */
+    public Map<String, Long> totalCounts() {
+        return totals.counts();
+    }
+
+    /**
+     * Find the strings used in the most requests, taking time proportional to limit.
+     *
+     * @param limit the greatest number of strings to return, at least 0
+     * @return up to limit strings in non-increasing order of the number of requests that used them,
+     *         with strings used equally often in the order they reached that number
+     */
+    public List<String> mostCommon(int limit) {
+        return totals.mostCommon(limit);
+    }
+
+    /**
+     * Count the requests made in the last TRENDING_SECONDS seconds. Requests are counted per second,
+     * so a request stops being counted between TRENDING_SECONDS and TRENDING_SECONDS + 1 seconds
+     * after it was made.
+     *
+     * @param nowMillis the current time, in milliseconds since the epoch
+     * @return a map from each string used in a recent request to the number of recent requests that used it
+     */
+    public Map<String, Long> recentCounts(long nowMillis) {
+        long now = nowMillis / 1000;
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.second <= now && now - bucket.second <= TRENDING_SECONDS) {
+                bucket.counts.forEach((query, count) -> counts.merge(query, count.sum(), Long::sum));
+            }
+        }
+        return counts;
     }
 
     public void setCount(int maxVal, int val) {
-        maxRequestCount.compareAndSet(maxRequestCount.get(), maxVal);
-        requestCount.compareAndSet(requestCount.get(), val);
+        maxRequestCount.set(maxVal);
+        requestCount.set(val);
+    }
+
+    /**
+     * @return the greatest number of requests made in 30 seconds, as last set with setCount
+     */
+    public int getMaxRequestCount() {
+        return maxRequestCount.get();
+    }
+
+    /**
+     * Write these statistics compactly, as StatisticsLog keeps them in its snapshots: the counts last set,
+     * then every string with its total count in rank order, then the recent counts of every bucket.
+     *
+     * @param out where to write the statistics
+     * @throws IOException if out could not be written
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(maxRequestCount.get());
+        out.writeInt(requestCount.get());
+
+        List<String> queries = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        totals.forEachRanked((query, count) -> {
+            queries.add(query);
+            counts.add(count);
+        });
+        out.writeInt(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            writeString(out, queries.get(i));
+            out.writeLong(counts.get(i));
+        }
+
+        List<Bucket> recent = new ArrayList<>();
+        for (int i = 0; i < buckets.length(); i++) {
+            if (buckets.get(i) != null) {
+                recent.add(buckets.get(i));
+            }
+        }
+        out.writeInt(recent.size());
+        for (Bucket bucket : recent) {
+            Map<String, Long> bucketCounts = new HashMap<>();
+            bucket.counts.forEach((query, count) -> bucketCounts.put(query, count.sum()));
+            out.writeLong(bucket.second);
+            out.writeInt(bucketCounts.size());
+            for (Map.Entry<String, Long> count : bucketCounts.entrySet()) {
+                writeString(out, count.getKey());
+                out.writeLong(count.getValue());
+            }
+        }
+    }
+
+    /**
+     * Add the statistics writeSnapshot wrote to these, taking the counts set with setCount from them.
+     *
+     * @param in where to read the statistics from
+     * @throws IOException if in could not be read
+     */
+    void readSnapshot(DataInputStream in) throws IOException {
+        setCount(in.readInt(), in.readInt());
+
+        int queries = in.readInt();
+        for (int i = 0; i < queries; i++) {
+            totals.add(readString(in), in.readLong());
+        }
+
+        int recent = in.readInt();
+        for (int i = 0; i < recent; i++) {
+            long second = in.readLong();
+            int bucketQueries = in.readInt();
+            for (int j = 0; j < bucketQueries; j++) {
+                addRecent(readString(in), second, in.readLong());
+            }
+        }
+    }
+
+    /**
+     * @param out where to write s
+     * @param s any string, written as the length of its UTF-8 bytes followed by them
+     * @throws IOException if out could not be written
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param in where to read a string writeString wrote
+     * @return the string
+     * @throws IOException if in could not be read
+     */
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     @Override
     public String toString() {
         JsonObject obj = new JsonObject();
 
-        JsonArray arr = new JsonArray();
-        for (Pair<String, String> req : requests) {
-            arr.add(req.a.toString() + "    " + req.b.toString());
+        JsonObject requests = new JsonObject();
+        for (Map.Entry<String, Long> count : totalCounts().entrySet()) {
+            requests.addProperty(count.getKey(), count.getValue());
         }
 
-        obj.add("Requests", arr);
+        obj.add("Requests", requests);
         obj.addProperty("requestCount", requestCount.toString());
         obj.addProperty("maxRequestCount", maxRequestCount.toString());
 
-        //return "hello";
-
-        return new StringBuffer(obj.toString()).toString();
+        return obj.toString();
     }
 }
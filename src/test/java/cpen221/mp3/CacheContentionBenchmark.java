@@ -0,0 +1,107 @@
+package cpen221.mp3;
+
+import cpen221.mp3.cache.Cache;
+import cpen221.mp3.cache.Cacheable;
+import cpen221.mp3.wikimediator.NotInCacheException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures get and touch throughput on a shared Cache as the number of threads grows.
+ * Each run is repeated with every call wrapped in a lock on the cache, which is how
+ * the cache behaved when all of its methods were synchronized, so the two columns
+ * show how much the lock-free read path scales compared to a single monitor.
+ *
+ * Run with: java cpen221.mp3.CacheContentionBenchmark [seconds per run]
+ */
+public class CacheContentionBenchmark {
+
+    private static final int ENTRIES = 10000;
+
+    private static class Item implements Cacheable {
+        private final String id;
+
+        Item(int i) {
+            id = String.valueOf(i);
+        }
+
+        public String id() {
+            return id;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 2000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        Cache<Item> cache = new Cache<>(ENTRIES, Cache.DTIMEOUT);
+        for (int i = 0; i < ENTRIES; i++) {
+            cache.put(new Item(i));
+        }
+
+        System.out.println("threads    lock-free ops/s    synchronized ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long lockFree = run(cache, threads, millis, false);
+            long locked = run(cache, threads, millis, true);
+            System.out.printf("%7d    %15d    %18d%n", threads, lockFree, locked);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Run threads that repeatedly get and touch random entries of cache for millis milliseconds.
+     *
+     * @return the number of get and touch pairs completed per second
+     */
+    private static long run(Cache<Item> cache, int threads, long millis, boolean synchronize)
+            throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        long[] deadline = new long[1];
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                while (System.nanoTime() < deadline[0]) {
+                    String id = String.valueOf(random.nextInt(ENTRIES));
+                    try {
+                        if (synchronize) {
+                            synchronized (cache) {
+                                cache.get(id);
+                                cache.touch(id);
+                            }
+                        } else {
+                            cache.get(id);
+                            cache.touch(id);
+                        }
+                    } catch (NotInCacheException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    count++;
+                }
+                ops.add(count);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        deadline[0] = System.nanoTime() + millis * 1000000;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return ops.sum() * 1000 / millis;
+    }
+}
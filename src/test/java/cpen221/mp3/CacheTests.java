@@ -1,15 +1,35 @@
 package cpen221.mp3;
 
 import cpen221.mp3.cache.Cache;
+import cpen221.mp3.cache.CacheStats;
 import cpen221.mp3.cache.Cacheable;
+import cpen221.mp3.cache.Codec;
+import cpen221.mp3.cache.DiskStore;
+import cpen221.mp3.cache.EvictionPolicy;
+import cpen221.mp3.cache.RemovalCause;
 import cpen221.mp3.wikimediator.NotInCacheException;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CacheTests {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     public class CacheItemTest implements Cacheable {
         private String id;
         private String item;
@@ -24,6 +44,16 @@ public class CacheTests {
         }
     }
 
+    public class CacheItemTestCodec implements Codec<CacheItemTest> {
+        public byte[] encode(CacheItemTest t) {
+            return t.item.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public CacheItemTest decode(String id, byte[] bytes) {
+            return new CacheItemTest(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
     @Test
     public void testPut() {
         Cache cache = new Cache();
@@ -100,6 +130,355 @@ public class CacheTests {
         Assert.assertEquals(stringSet, cache.keySet());
     }
 
+    @Test
+    public void testPutFullEvictsLeastRecentlyTouched() {
+        Cache cache = new Cache(3, 10000);
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("2");
+        CacheItemTest cacheItemTest3 = new CacheItemTest("3");
+        CacheItemTest cacheItemTest4 = new CacheItemTest("4");
+
+        cache.put(cacheItemTest1);
+        cache.put(cacheItemTest2);
+        cache.put(cacheItemTest3);
+        cache.touch(cacheItemTest1.id());
+        cache.put(cacheItemTest4);
+
+        Set<CacheItemTest> stringSet = new HashSet<>();
+
+        stringSet.add(cacheItemTest1);
+        stringSet.add(cacheItemTest3);
+        stringSet.add(cacheItemTest4);
+
+        Assert.assertEquals(stringSet, cache.keySet());
+    }
+
+    @Test
+    public void testPutFullLargeCapacity() {
+        int capacity = 100000;
+        Cache cache = new Cache(capacity, 10000);
+
+        for (int i = 0; i < 2 * capacity; i++) {
+            cache.put(new CacheItemTest(String.valueOf(i)));
+        }
+
+        Set<CacheItemTest> keys = cache.keySet();
+        Assert.assertEquals(capacity, keys.size());
+        for (Object key : keys) {
+            Assert.assertTrue(Integer.parseInt(((CacheItemTest) key).item) >= capacity);
+        }
+    }
+
+    @Test
+    public void testConcurrentTouchAndPut() throws InterruptedException {
+        int capacity = 100;
+        Cache cache = new Cache(capacity, 10000);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            int offset = t * 1000;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    CacheItemTest item = new CacheItemTest(String.valueOf(offset + i));
+                    cache.put(item);
+                    cache.touch(item.id());
+                    cache.touch(new CacheItemTest(String.valueOf(offset + i / 2)).id());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(capacity, cache.keySet().size());
+    }
+
+    @Test
+    public void testPutWeighted() {
+        Cache<CacheItemTest> cache = new Cache<>(10, 10000, t -> t.item.length());
+        CacheItemTest cacheItemTest1 = new CacheItemTest("aaaa");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("bbbb");
+        CacheItemTest cacheItemTest3 = new CacheItemTest("cc");
+        CacheItemTest cacheItemTest4 = new CacheItemTest("dddddd");
+
+        cache.put(cacheItemTest1);
+        cache.put(cacheItemTest2);
+        cache.put(cacheItemTest3);
+
+        Assert.assertEquals(3, cache.keySet().size());
+
+        cache.put(cacheItemTest4);
+
+        Set<CacheItemTest> stringSet = new HashSet<>();
+        stringSet.add(cacheItemTest3);
+        stringSet.add(cacheItemTest4);
+
+        Assert.assertEquals(stringSet, cache.keySet());
+    }
+
+    @Test
+    public void testPutWeightedTooHeavy() {
+        Cache<CacheItemTest> cache = new Cache<>(10, 10000, t -> t.item.length());
+        CacheItemTest cacheItemTest1 = new CacheItemTest("aaaa");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("bbbbbbbbbbbb");
+
+        cache.put(cacheItemTest1);
+
+        Assert.assertFalse(cache.put(cacheItemTest2));
+        Assert.assertEquals(Collections.singleton(cacheItemTest1), cache.keySet());
+    }
+
+    @Test
+    public void testTinyLfuKeepsPopularItems() {
+        Cache<CacheItemTest> lru = new Cache<>(100, 10000, EvictionPolicy.LRU);
+        Cache<CacheItemTest> tinyLfu = new Cache<>(100, 10000, EvictionPolicy.TINY_LFU);
+        List<CacheItemTest> popular = new ArrayList<>();
+
+        for (int i = 0; i < 50; i++) {
+            popular.add(new CacheItemTest("popular" + i));
+        }
+
+        for (Cache<CacheItemTest> cache : Arrays.asList(lru, tinyLfu)) {
+            for (int round = 0; round < 5; round++) {
+                for (CacheItemTest item : popular) {
+                    cache.getOrLoad(item.id(), id -> item);
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                CacheItemTest item = new CacheItemTest("scan" + i);
+                cache.getOrLoad(item.id(), id -> item);
+            }
+        }
+
+        Assert.assertTrue(Collections.disjoint(popular, lru.keySet()));
+        Assert.assertTrue(tinyLfu.keySet().containsAll(popular));
+        Assert.assertEquals(100, tinyLfu.keySet().size());
+    }
+
+    @Test
+    public void testSecondLevel() throws IOException, NotInCacheException {
+        Path directory = temporaryFolder.newFolder("cache").toPath();
+        DiskStore<CacheItemTest> store = new DiskStore<>(directory, new CacheItemTestCodec(), 1 << 20, 10000, 4096);
+        Cache<CacheItemTest> cache = new Cache.Builder<CacheItemTest>()
+                .withCapacity(2)
+                .withSecondLevel(store)
+                .build();
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("2");
+        CacheItemTest cacheItemTest3 = new CacheItemTest("3");
+
+        cache.put(cacheItemTest1);
+        cache.put(cacheItemTest2);
+        cache.put(cacheItemTest3);
+
+        Assert.assertFalse(cache.keySet().contains(cacheItemTest1));
+        Assert.assertEquals("1", cache.get(cacheItemTest1.id()).item);
+        Assert.assertEquals("1", cache.getOrLoad(cacheItemTest1.id(), id -> null).item);
+
+        store.close();
+
+        DiskStore<CacheItemTest> reopened = new DiskStore<>(directory, new CacheItemTestCodec(), 1 << 20, 10000, 4096);
+        Cache<CacheItemTest> restarted = new Cache.Builder<CacheItemTest>()
+                .withCapacity(2)
+                .withSecondLevel(reopened)
+                .build();
+
+        Assert.assertEquals("1", restarted.getOrLoad(cacheItemTest1.id(), id -> null).item);
+        reopened.close();
+    }
+
+    @Test
+    public void testSecondLevelKeepsWriteTime() throws IOException, InterruptedException {
+        Path directory = temporaryFolder.newFolder("cache").toPath();
+        DiskStore<CacheItemTest> store = new DiskStore<>(directory, new CacheItemTestCodec(), 1 << 20, 10000, 4096);
+        Cache<CacheItemTest> cache = new Cache.Builder<CacheItemTest>()
+                .withCapacity(2)
+                .withRefreshAfter(1)
+                .withRefreshExecutor(Runnable::run)
+                .withSecondLevel(store)
+                .build();
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CacheItemTest reloaded = new CacheItemTest("1");
+        AtomicInteger loads = new AtomicInteger();
+
+        long written = System.currentTimeMillis();
+        cache.put(cacheItemTest1);
+        Thread.sleep(600);
+        cache.put(new CacheItemTest("2"));
+        cache.put(new CacheItemTest("3"));
+        Assert.assertFalse(cache.keySet().contains(cacheItemTest1));
+        Assert.assertTrue(store.getEntry(cacheItemTest1.id()).writeTime() < written + 600);
+
+        // the object read back from disk is as old as when it was first put, so it is refreshed on time
+        Thread.sleep(600);
+        Assert.assertEquals("1", cache.getIfPresent(cacheItemTest1.id()).item);
+        cache.getOrLoad(cacheItemTest1.id(), id -> {
+            loads.incrementAndGet();
+            return reloaded;
+        });
+        Assert.assertEquals(1, loads.get());
+        Assert.assertSame(reloaded, cache.getIfPresent(cacheItemTest1.id()));
+
+        Assert.assertTrue(store.put(new CacheItemTest("4"), System.currentTimeMillis() - 20000 * 1000L));
+        Assert.assertNull(store.get(new CacheItemTest("4").id()));
+        store.close();
+    }
+
+    @Test
+    public void testSecondLevelWritesOutsideEvictionLock() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Codec<CacheItemTest> slowCodec = new Codec<CacheItemTest>() {
+            public byte[] encode(CacheItemTest t) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return t.item.getBytes(StandardCharsets.UTF_8);
+            }
+
+            public CacheItemTest decode(String id, byte[] bytes) {
+                return new CacheItemTest(new String(bytes, StandardCharsets.UTF_8));
+            }
+        };
+        Path directory = temporaryFolder.newFolder("cache").toPath();
+        DiskStore<CacheItemTest> store = new DiskStore<>(directory, slowCodec, 1 << 20, 10000, 4096);
+        Cache<CacheItemTest> cache = new Cache.Builder<CacheItemTest>()
+                .withCapacity(2)
+                .withSecondLevel(store)
+                .build();
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+
+        cache.put(cacheItemTest1);
+        cache.put(new CacheItemTest("2"));
+        Thread spiller = new Thread(() -> cache.put(new CacheItemTest("3")));
+        spiller.start();
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // while the spilled object is being written, other writers go on and it can still be read back
+        CompletableFuture<Boolean> put = CompletableFuture.supplyAsync(() -> cache.put(new CacheItemTest("4")));
+        Assert.assertTrue(put.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("1", cache.getIfPresent(cacheItemTest1.id()).item);
+
+        release.countDown();
+        spiller.join();
+        cache.close();
+        DiskStore<CacheItemTest> reopened = new DiskStore<>(directory, new CacheItemTestCodec(), 1 << 20, 10000, 4096);
+        Assert.assertEquals("1", reopened.get(cacheItemTest1.id()).item);
+        reopened.close();
+    }
+
+    @Test
+    public void testSecondLevelStopsAtCorruptRecord() throws IOException {
+        Path directory = temporaryFolder.newFolder("cache").toPath();
+        DiskStore<CacheItemTest> store = new DiskStore<>(directory, new CacheItemTestCodec(), 1 << 20, 10000, 4096);
+        store.put(new CacheItemTest("1"));
+        store.put(new CacheItemTest("2"));
+        store.close();
+
+        // give the second record an identifier longer than the record itself
+        Path segment = directory.resolve("segment-00000.dat");
+        byte[] bytes = Files.readAllBytes(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int second = Integer.BYTES + buffer.getInt(0);
+        buffer.putInt(second + Integer.BYTES + Long.BYTES, Integer.MAX_VALUE);
+        Files.write(segment, bytes);
+
+        DiskStore<CacheItemTest> reopened = new DiskStore<>(directory, new CacheItemTestCodec(), 1 << 20, 10000, 4096);
+        Assert.assertEquals("1", reopened.get(new CacheItemTest("1").id()).item);
+        Assert.assertNull(reopened.get(new CacheItemTest("2").id()));
+        reopened.close();
+    }
+
+    @Test
+    public void testSecondLevelDropsOldestSegment() throws IOException {
+        Path directory = temporaryFolder.newFolder("cache").toPath();
+        DiskStore<CacheItemTest> store = new DiskStore<>(directory, new CacheItemTestCodec(), 2 * 64, 10000, 64);
+
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(store.put(new CacheItemTest("item" + i)));
+        }
+
+        Assert.assertNull(store.get(new CacheItemTest("item0").id()));
+        Assert.assertEquals("item19", store.get(new CacheItemTest("item19").id()).item);
+        Assert.assertFalse(store.put(new CacheItemTest(String.join("", Collections.nCopies(64, "x")))));
+        store.close();
+    }
+
+    @Test
+    public void testManyCachesShareMaintenance() throws InterruptedException, IOException {
+        Cache<CacheItemTest> first = new Cache<>(10, 1);
+        first.put(new CacheItemTest("0"));
+        int threads = Thread.activeCount();
+        List<Cache<CacheItemTest>> caches = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            Cache<CacheItemTest> cache = new Cache<>(10, 1);
+            cache.put(new CacheItemTest("1"));
+            caches.add(cache);
+        }
+        Assert.assertTrue(Thread.activeCount() <= threads);
+
+        Thread.sleep(1500);
+        for (Cache<CacheItemTest> cache : caches) {
+            Assert.assertTrue(cache.keySet().isEmpty());
+            Assert.assertEquals(1, cache.stats().expirationCount());
+            cache.close();
+        }
+        first.close();
+    }
+
+    @Test
+    public void testCloseStopsMaintenance() throws InterruptedException, IOException {
+        Cache<CacheItemTest> cache = new Cache<>(10, 1);
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+
+        cache.put(cacheItemTest1);
+        cache.close();
+        Thread.sleep(1500);
+
+        Assert.assertEquals(0, cache.stats().expirationCount());
+    }
+
+    @Test
+    public void testStats() throws InterruptedException {
+        Cache<CacheItemTest> cache = new Cache<>(2, 1);
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("2");
+        CacheItemTest cacheItemTest3 = new CacheItemTest("3");
+
+        cache.getOrLoad(cacheItemTest1.id(), id -> cacheItemTest1);
+        cache.getOrLoad(cacheItemTest1.id(), id -> cacheItemTest1);
+        cache.getOrLoad(cacheItemTest2.id(), id -> cacheItemTest2);
+        cache.getOrLoad(cacheItemTest3.id(), id -> cacheItemTest3);
+        cache.update(cacheItemTest3);
+
+        try {
+            cache.getOrLoad("4", id -> {
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException e) {
+
+        }
+
+        Thread.sleep(1500);
+
+        CacheStats stats = cache.stats();
+        Assert.assertEquals(1, stats.hitCount());
+        Assert.assertEquals(4, stats.missCount());
+        Assert.assertEquals(0.2, stats.hitRate(), 0.0001);
+        Assert.assertEquals(3, stats.loadSuccessCount());
+        Assert.assertEquals(1, stats.loadFailureCount());
+        Assert.assertEquals(1, stats.evictionCount());
+        Assert.assertEquals(1, stats.removalCount(RemovalCause.REPLACED));
+        Assert.assertEquals(2, stats.expirationCount());
+    }
+
     @Test
     public void testPruneMap() {
         Cache cache = new Cache(10, 3);
@@ -148,6 +527,18 @@ public class CacheTests {
         Assert.assertEquals(cacheItemTest1, cache.get(cacheItemTest1.id()));
     }
 
+    @Test
+    public void testGetIfPresent() {
+        Cache<CacheItemTest> cache = new Cache<>(10, 3);
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+
+        Assert.assertNull(cache.getIfPresent(cacheItemTest1.id()));
+        cache.put(cacheItemTest1);
+        Assert.assertSame(cacheItemTest1, cache.getIfPresent(cacheItemTest1.id()));
+        Assert.assertEquals(1, cache.stats().hitCount());
+        Assert.assertEquals(1, cache.stats().missCount());
+    }
+
     @Test(expected = NotInCacheException.class)
     public void testGetException() throws NotInCacheException{
         Cache cache = new Cache(10, 3);
@@ -172,6 +563,154 @@ public class CacheTests {
         Assert.assertEquals(cacheItemTest1, cache.get(cacheItemTest1.id()));
     }
 
+    @Test
+    public void testGetOrLoad() throws NotInCacheException {
+        Cache<CacheItemTest> cache = new Cache<>(10, 3);
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+
+        Assert.assertEquals(cacheItemTest1, cache.getOrLoad(cacheItemTest1.id(), id -> cacheItemTest1));
+        Assert.assertEquals(cacheItemTest1, cache.getOrLoad(cacheItemTest1.id(), id -> new CacheItemTest("1")));
+        Assert.assertEquals(cacheItemTest1, cache.get(cacheItemTest1.id()));
+    }
+
+    @Test
+    public void testGetOrLoadRefresh() throws InterruptedException, NotInCacheException {
+        Cache<CacheItemTest> cache = new Cache.Builder<CacheItemTest>()
+                .withCapacity(10)
+                .withTimeout(3)
+                .withRefreshAfter(1)
+                .withRefreshExecutor(Runnable::run)
+                .build();
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("1");
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.put(cacheItemTest1);
+        Assert.assertSame(cacheItemTest1, cache.getOrLoad(cacheItemTest1.id(), id -> {
+            loads.incrementAndGet();
+            return cacheItemTest2;
+        }));
+        Assert.assertEquals(0, loads.get());
+
+        Thread.sleep(1100);
+        Assert.assertSame(cacheItemTest1, cache.getOrLoad(cacheItemTest1.id(), id -> {
+            loads.incrementAndGet();
+            return cacheItemTest2;
+        }));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertSame(cacheItemTest2, cache.get(cacheItemTest1.id()));
+    }
+
+    @Test
+    public void testGetOrLoadAsyncRefreshWithReloader() throws Exception {
+        Cache<CacheItemTest> cache = new Cache.Builder<CacheItemTest>()
+                .withCapacity(10)
+                .withTimeout(3)
+                .withRefreshAfter(1)
+                .build();
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("1");
+        List<CacheItemTest> reloaded = Collections.synchronizedList(new ArrayList<>());
+
+        cache.put(cacheItemTest1);
+        Thread.sleep(1100);
+        Assert.assertSame(cacheItemTest1, cache.getOrLoadAsync(cacheItemTest1.id(),
+                id -> CompletableFuture.completedFuture(new CacheItemTest("1")),
+                (id, old) -> {
+                    reloaded.add(old);
+                    return CompletableFuture.completedFuture(cacheItemTest2);
+                }).get());
+        Assert.assertEquals(List.of(cacheItemTest1), reloaded);
+        Assert.assertSame(cacheItemTest2, cache.get(cacheItemTest1.id()));
+    }
+
+    @Test
+    public void testGetOrLoadConcurrentMisses() throws InterruptedException {
+        Cache<CacheItemTest> cache = new Cache<>(10, 3);
+        AtomicInteger loads = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        Set<CacheItemTest> results = Collections.synchronizedSet(new HashSet<>());
+
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> results.add(cache.getOrLoad(String.valueOf("1".hashCode()), id -> {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+
+                }
+                return new CacheItemTest("1");
+            })));
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, results.size());
+    }
+
+    @Test
+    public void testGetOrLoadException() {
+        Cache<CacheItemTest> cache = new Cache<>(10, 3);
+
+        try {
+            cache.getOrLoad("1", id -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+
+        }
+
+        Assert.assertTrue(cache.keySet().isEmpty());
+    }
+
+    @Test
+    public void testGetOrLoadAsync() throws NotInCacheException {
+        Cache<CacheItemTest> cache = new Cache<>(10, 3);
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CompletableFuture<CacheItemTest> pending = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+
+        CompletableFuture<CacheItemTest> first = cache.getOrLoadAsync(cacheItemTest1.id(), id -> {
+            loads.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<CacheItemTest> second = cache.getOrLoadAsync(cacheItemTest1.id(), id -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture(new CacheItemTest("1"));
+        });
+        Assert.assertFalse(first.isDone());
+        Assert.assertFalse(second.isDone());
+
+        pending.complete(cacheItemTest1);
+        Assert.assertSame(cacheItemTest1, first.join());
+        Assert.assertSame(cacheItemTest1, second.join());
+        Assert.assertEquals(1, loads.get());
+        Assert.assertSame(cacheItemTest1, cache.get(cacheItemTest1.id()));
+    }
+
+    @Test
+    public void testGetOrLoadAsyncException() {
+        Cache<CacheItemTest> cache = new Cache<>(10, 3);
+        CompletableFuture<CacheItemTest> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException());
+
+        try {
+            cache.getOrLoadAsync("1", id -> failed).join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        Assert.assertTrue(cache.keySet().isEmpty());
+        Assert.assertEquals(1, cache.stats().loadFailureCount());
+    }
+
     @Test
     public void testTouch() {
         Cache cache = new Cache(10, 3);
@@ -218,6 +757,36 @@ public class CacheTests {
         Assert.assertFalse(cache.touch(cacheItemTest1.id()));
     }
 
+    @Test
+    public void testTouchDelaysPrune() {
+        Cache cache = new Cache(10, 2);
+        CacheItemTest cacheItemTest1 = new CacheItemTest("1");
+        CacheItemTest cacheItemTest2 = new CacheItemTest("2");
+
+        cache.put(cacheItemTest1);
+        cache.put(cacheItemTest2);
+
+        try {
+            Thread.sleep(1500);
+        }catch (InterruptedException e) {
+
+        }
+
+        cache.touch(cacheItemTest1.id());
+
+        try {
+            Thread.sleep(1000);
+        }catch (InterruptedException e) {
+
+        }
+
+        Set<CacheItemTest> stringSet = new HashSet<>();
+        stringSet.add(cacheItemTest1);
+
+        Assert.assertEquals(stringSet, cache.keySet());
+        Assert.assertFalse(cache.touch(cacheItemTest2.id()));
+    }
+
     @Test
     public void testUpdate() {
         Cache cache = new Cache(10, 3);
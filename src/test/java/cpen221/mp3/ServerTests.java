@@ -3,13 +3,17 @@ package cpen221.mp3;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import cpen221.mp3.server.WikiMediatorServer;
+import cpen221.mp3.wikimediator.FixtureBackend;
 import cpen221.mp3.wikimediator.WikiMediator;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ServerTests {
 
@@ -441,4 +445,36 @@ public class ServerTests {
 
         assertEquals(serverReply, reply.toString());
     }
+
+    @Test
+    public void getConnectedPagesTimeoutStopsSearchTest() throws Exception {
+        Path fixture = Paths.get("src", "test", "resources", "fixture-wiki.json");
+        FixtureBackend complete = new FixtureBackend.Builder(fixture).withLatency(300).build();
+        new WikiMediator(complete).getConnectedPages("UBC", 10);
+
+        FixtureBackend timedOut = new FixtureBackend.Builder(fixture).withLatency(300).build();
+        int port = WikiMediatorServer.WIKI_MEDIATOR_PORT + 1;
+        WikiMediatorServer server = new WikiMediatorServer(port, 1, new WikiMediator(timedOut));
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serving.start();
+
+        WikiMediatiorClient client = new WikiMediatiorClient("localhost", port);
+        client.sendConnectedPages("1", "getConnectedPages", "UBC", 10, "1");
+        JsonObject reply = new Gson().fromJson(client.getReply(), JsonObject.class);
+        long callsAtTimeout = timedOut.calls();
+        Thread.sleep(3000);
+        client.close();
+        serving.join();
+
+        assertEquals("Operation timed out", reply.get("response").getAsString());
+        // the level in flight at the timeout finishes, but no level after it is fetched
+        assertTrue(timedOut.calls() <= callsAtTimeout + 1);
+        assertTrue(timedOut.calls() < complete.calls());
+    }
 }
@@ -0,0 +1,147 @@
+package cpen221.mp3.wikimediator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class LinkFetchingTests {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void titleBatcherSendsFullBatchesAtOnceTest() throws IOException {
+        FixtureBackend backend = fixture().build();
+        TitleBatcher<List<String>> batcher = new TitleBatcher<>(backend::links, backend::getLinksOnPage, executor,
+                1000);
+
+        List<CompletableFuture<List<String>>> first = new ArrayList<>();
+        for (int i = 0; i < TitleBatcher.MAX_BATCH; i++) {
+            first.add(batcher.request("Page " + i));
+        }
+        CompletableFuture<List<String>> rest = batcher.request("UBC");
+        first.forEach(CompletableFuture::join);
+
+        // the first 50 titles are sent as soon as the batch is full, the 51st waits for the window
+        assertEquals(1, backend.calls());
+        assertEquals(List.of("Vancouver", "Physics"), rest.join());
+        assertEquals(2, backend.calls());
+    }
+
+    @Test
+    public void titleBatcherSendsOneBatchPerWindowTest() throws Exception {
+        FixtureBackend backend = fixture().build();
+        TitleBatcher<List<String>> batcher = new TitleBatcher<>(backend::links, backend::getLinksOnPage, executor,
+                200);
+
+        CompletableFuture<List<String>> ubc = batcher.request("UBC");
+        CompletableFuture<List<String>> again = batcher.request("UBC");
+        CompletableFuture<List<String>> canada = batcher.request("Canada");
+        ubc.join();
+        canada.join();
+        assertEquals(1, backend.calls());
+        assertEquals(ubc.join(), again.join());
+
+        Thread.sleep(400);
+        batcher.request("Vancouver").join();
+        assertEquals(2, backend.calls());
+    }
+
+    @Test
+    public void linkGraphFetchesOncePerTimeToLiveTest() throws Exception {
+        FixtureBackend backend = fixture().withLatency(100).build();
+        LinkGraph.Generation graph = new LinkGraph(
+                title -> CompletableFuture.supplyAsync(() -> backend.getLinksOnPage(title)),
+                title -> CompletableFuture.supplyAsync(() -> backend.whatLinksHere(title)), 1).generation();
+        int ubc = graph.id("UBC");
+
+        CompletableFuture<int[]> links = graph.linksAsync(ubc);
+        CompletableFuture<int[]> shared = graph.linksAsync(ubc);
+        assertEquals(new HashSet<>(List.of("Vancouver", "Physics")), new HashSet<>(graph.titles(links.join())));
+        assertArrayEquals(links.join(), shared.join());
+        assertArrayEquals(links.join(), graph.linksAsync(ubc).join());
+        assertEquals(1, backend.calls());
+
+        // backlinks are fetched separately from links
+        graph.backlinksAsync(ubc).join();
+        assertEquals(2, backend.calls());
+
+        Thread.sleep(1100);
+        assertArrayEquals(links.join(), graph.linksAsync(ubc).join());
+        assertEquals(3, backend.calls());
+    }
+
+    @Test
+    public void linkGraphStartsNewGenerationWhenFullTest() throws IOException {
+        FixtureBackend backend = fixture().build();
+        LinkGraph graph = new LinkGraph(title -> CompletableFuture.supplyAsync(() -> backend.getLinksOnPage(title)),
+                title -> CompletableFuture.supplyAsync(() -> backend.whatLinksHere(title)), 60, 6);
+        LinkGraph.Generation first = graph.generation();
+        first.linksAsync(first.id("UBC")).join();
+        int page = first.id("Page 1");
+        first.id("Page 2");
+        first.id("Page 3");
+
+        // the full generation is replaced, keeping the links of UBC but not the pages that were never fetched
+        LinkGraph.Generation second = graph.generation();
+        assertNotSame(first, second);
+        assertSame(second, graph.generation());
+        int[] links = second.linksAsync(second.id("UBC")).join();
+        assertEquals(new HashSet<>(List.of("Vancouver", "Physics")), new HashSet<>(second.titles(links)));
+        assertEquals(1, backend.calls());
+        assertEquals(page, second.id("Canada"));
+        assertEquals("Page 1", first.title(page));
+
+        // a search keeps the generation it started with, however large it grows
+        Set<String> expected = new HashSet<>(new WikiMediator(fixture().build()).getConnectedPages("UBC", 10));
+        BreadthFirstSearch search = new BreadthFirstSearch(graph);
+        for (int i = 0; i < 2; i++) {
+            List<String> found = search.withinAsync("UBC", 10, executor).join().within(10);
+            assertEquals(expected.size(), found.size());
+            assertEquals(expected, new HashSet<>(found));
+        }
+    }
+
+    @Test
+    public void titleStreamPausesSearchTest() throws Exception {
+        FixtureBackend backend = fixture().build();
+        LinkGraph graph = new LinkGraph(title -> CompletableFuture.supplyAsync(() -> backend.getLinksOnPage(title)),
+                title -> CompletableFuture.supplyAsync(() -> backend.whatLinksHere(title)), 60);
+        TitleStream stream = new TitleStream(2);
+        new BreadthFirstSearch(graph).withinAsync("UBC", 10, executor, stream::offer)
+                .thenRun(stream::finish);
+
+        // UBC and the two pages it links to fill the stream, so the next level waits for the client
+        Thread.sleep(500);
+        assertEquals(1, backend.calls());
+
+        List<String> titles = new ArrayList<>();
+        stream.forEachRemaining(titles::add);
+        assertEquals("UBC", titles.get(0));
+        assertEquals(new HashSet<>(new WikiMediator(fixture().build()).getConnectedPages("UBC", 10)),
+                new HashSet<>(titles));
+        assertEquals(titles.size(), backend.calls());
+    }
+
+    private static FixtureBackend.Builder fixture() {
+        return new FixtureBackend.Builder(Paths.get("src", "test", "resources", "fixture-wiki.json"));
+    }
+}